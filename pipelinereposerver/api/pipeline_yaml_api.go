@@ -34,11 +34,12 @@ func getPipelineConfig(w http.ResponseWriter, r *http.Request) {
 		if desiredGitCommit == rootCommit {
 			desiredGitCommit = repoManager.GetCurrentCommit(gitRepoSchema.GetGitRepo())
 		}
-		if !repoManager.ResetToVersion(desiredGitCommit, gitRepoSchema) {
+		//The file is read from the commit itself, so concurrent requests for other commits can't change what is read
+		if !repoManager.ContainsVersion(desiredGitCommit, gitRepoSchema) {
 			http.Error(w, "Could not switch to right revision", http.StatusInternalServerError)
 			return
 		}
-		fileContents := repoManager.GetYamlFileContents(fileRequest.Filename, gitRepoSchema)
+		fileContents := repoManager.GetYamlFileContentsAtVersion(fileRequest.Filename, desiredGitCommit, gitRepoSchema)
 		if fileContents == "" {
 			http.Error(w, "Couldn't find contents", http.StatusNotFound)
 			return
@@ -53,6 +54,57 @@ func getPipelineConfig(w http.ResponseWriter, r *http.Request) {
 	return
 }
 
+//Reads every requested file at the same commit, so a step's files cost one round trip instead of one each
+func getPipelineConfigs(w http.ResponseWriter, r *http.Request) {
+	vars := mux.Vars(r)
+	orgName := vars[orgNameField]
+	var filesRequest git.GetFilesRequest
+	buf := new(bytes.Buffer)
+	_, err := buf.ReadFrom(r.Body)
+	if err != nil {
+		http.Error(w, err.Error(), http.StatusBadRequest)
+		return
+	}
+	err = json.Unmarshal(buf.Bytes(), &filesRequest)
+	if err != nil {
+		http.Error(w, err.Error(), http.StatusBadRequest)
+		return
+	}
+
+	gitRepoSchema := git.New(filesRequest.GitRepoSchemaInfo.GetGitRepo(), filesRequest.GitRepoSchemaInfo.GetPathToRoot(), nil)
+	if repoManager.GetOrgName() == orgName && repoManager.ContainsGitRepoSchema(gitRepoSchema) {
+		desiredGitCommit := filesRequest.GitCommitHash
+		if desiredGitCommit == rootCommit {
+			desiredGitCommit = repoManager.GetCurrentCommit(gitRepoSchema.GetGitRepo())
+		}
+		if !repoManager.ContainsVersion(desiredGitCommit, gitRepoSchema) {
+			http.Error(w, "Could not switch to right revision", http.StatusInternalServerError)
+			return
+		}
+		files := make(map[string]string)
+		for _, filename := range filesRequest.Filenames {
+			fileContents := repoManager.GetYamlFileContentsAtVersion(filename, desiredGitCommit, gitRepoSchema)
+			if fileContents != "" {
+				files[filename] = fileContents
+			}
+		}
+		responseBody, err := json.Marshal(files)
+		if err != nil {
+			http.Error(w, err.Error(), http.StatusInternalServerError)
+			return
+		}
+		w.Header().Set("Content-Type", "application/json")
+		_, err = w.Write(responseBody)
+		if err != nil {
+			http.Error(w, "error occurred when trying to write the filecontents", http.StatusInternalServerError)
+		}
+		return
+	}
+	http.Error(w, "org name did not match or repo is not contained by manager", http.StatusBadRequest)
+	return
+}
+
 func InitFileEndpoints(r *mux.Router) {
 	r.HandleFunc("/data/file/{orgName}/{teamName}", getPipelineConfig).Methods("POST")
+	r.HandleFunc("/data/files/{orgName}/{teamName}", getPipelineConfigs).Methods("POST")
 }
\ No newline at end of file
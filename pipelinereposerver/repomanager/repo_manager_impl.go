@@ -23,6 +23,8 @@ type RepoManager interface {
 	Update(gitRepoSchema git.GitRepoSchema) bool
 	Delete(gitRepoSchema git.GitRepoSchema) bool
 	GetYamlFileContents(filename string, gitRepoSchema git.GitRepoSchema) string
+	GetYamlFileContentsAtVersion(filename string, gitCommit string, gitRepoSchema git.GitRepoSchema) string
+	ContainsVersion(gitCommit string, gitRepoSchema git.GitRepoSchema) bool
 	Sync(gitRepoSchema git.GitRepoSchema) string
 	ResetToVersion(gitCommit string, gitRepoSchema git.GitRepoSchema) bool
 	ContainsGitRepoSchema(gitRepoSchema git.GitRepoSchema) bool
@@ -132,6 +134,48 @@ func (r *RepoManagerImpl) GetYamlFileContents(filename string, gitRepoSchema git
 	return string(dat)
 }
 
+//Reads the file from the commit's tree rather than the working tree, so requests for different commits never see each
+//other's checkouts
+func (r *RepoManagerImpl) GetYamlFileContentsAtVersion(filename string, gitCommit string, gitRepoSchema git.GitRepoSchema) string {
+	cachedGitRepoSchema, ok := r.gitRepos[getGitRepoKey(gitRepoSchema)]
+	if !ok {
+		log.Printf("Repo does not exist in manager")
+		return ""
+	}
+	truncatedFilePath := strings.Trim(filename, "/")
+	pathToRoot := strings.Trim(gitRepoSchema.GetPathToRoot(), "/")
+	var filePath string
+	if pathToRoot == "" {
+		filePath = truncatedFilePath
+	} else {
+		filePath = pathToRoot + "/" + truncatedFilePath
+	}
+	//The arguments are passed straight to git, so nothing in the request is interpreted by a shell
+	process := exec.Command("git", "show", gitCommit+":"+filePath)
+	process.Dir = r.orgName + "/" + directory + "/" + commandbuilder.GetFolderName(cachedGitRepoSchema.GetGitRepo())
+	output, err := process.Output()
+	if err != nil {
+		log.Printf("Error reading file %s at %s: %s", filePath, gitCommit, err)
+		return ""
+	}
+	return string(output)
+}
+
+func (r *RepoManagerImpl) ContainsVersion(gitCommit string, gitRepoSchema git.GitRepoSchema) bool {
+	cachedGitRepoSchema, ok := r.gitRepos[getGitRepoKey(gitRepoSchema)]
+	if !ok {
+		log.Printf("Repo does not exist in manager")
+		return false
+	}
+	process := exec.Command("git", "cat-file", "-e", gitCommit+"^{commit}")
+	process.Dir = r.orgName + "/" + directory + "/" + commandbuilder.GetFolderName(cachedGitRepoSchema.GetGitRepo())
+	if err := process.Run(); err != nil {
+		log.Printf("Commit %s was not found in repo %s: %s", gitCommit, cachedGitRepoSchema.GetGitRepo(), err)
+		return false
+	}
+	return true
+}
+
 func (r *RepoManagerImpl) Sync(gitRepoSchema git.GitRepoSchema) string {
 	cachedGitRepoSchema, ok := r.gitRepos[getGitRepoKey(gitRepoSchema)]
 	if !ok {
@@ -1,5 +1,7 @@
 package com.greenops.util.datamodel.auditlog;
 
+import java.util.function.Supplier;
+
 public class DeploymentLog implements Log {
 
     private final String pipelineUniqueVersionNumber;
@@ -12,6 +14,9 @@ public class DeploymentLog implements Log {
     private String gitCommitVersion;
     private String brokenTest;
     private String brokenTestLog;
+    //Set when the test log is stored under its own key instead of inline. It is then only loaded the first time it is read.
+    private String brokenTestLogKey;
+    private Supplier<String> brokenTestLogLoader;
 
     public DeploymentLog(String pipelineUniqueVersionNumber, String rollbackUniqueVersionNumber, int uniqueVersionInstance, String status, boolean deploymentComplete, String argoApplicationName, String argoRevisionHash, String gitCommitVersion, String brokenTest, String brokenTestLog) {
         this.pipelineUniqueVersionNumber = pipelineUniqueVersionNumber;
@@ -95,10 +100,26 @@ public class DeploymentLog implements Log {
     }
 
     public String getBrokenTestLog() {
+        if (brokenTestLogLoader != null) {
+            return brokenTestLogLoader.get();
+        }
         return brokenTestLog;
     }
 
     public void setBrokenTestLog(String brokenTestLog) {
         this.brokenTestLog = brokenTestLog;
+        brokenTestLogKey = null;
+        brokenTestLogLoader = null;
+    }
+
+    public String getBrokenTestLogKey() {
+        return brokenTestLogKey;
+    }
+
+    //The loader is called on every read of the test log, so it should hold on to what it loads
+    public void setBrokenTestLogKey(String brokenTestLogKey, Supplier<String> brokenTestLogLoader) {
+        this.brokenTestLogKey = brokenTestLogKey;
+        this.brokenTestLogLoader = brokenTestLogLoader;
+        brokenTestLog = null;
     }
 }
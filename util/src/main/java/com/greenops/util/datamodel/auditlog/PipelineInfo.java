@@ -7,11 +7,18 @@ public class PipelineInfo {
     private String pipelineUvn;
     private List<String> errors;
     private List<String> stepList;
+    //Set when the run never started because a newer trigger for the pipeline was run in its place
+    private String supersededBy;
 
     public PipelineInfo(String pipelineUvn, List<String> errors, List<String> stepList) {
+        this(pipelineUvn, errors, stepList, null);
+    }
+
+    public PipelineInfo(String pipelineUvn, List<String> errors, List<String> stepList, String supersededBy) {
         this.pipelineUvn = pipelineUvn;
         this.errors = errors;
         this.stepList = stepList;
+        this.supersededBy = supersededBy;
     }
 
     public List<String> getErrors() {
@@ -29,4 +36,12 @@ public class PipelineInfo {
     public String getPipelineUvn() {
         return pipelineUvn;
     }
+
+    public String getSupersededBy() {
+        return supersededBy;
+    }
+
+    public boolean isSkipped() {
+        return supersededBy != null && !supersededBy.isEmpty();
+    }
 }
@@ -1,6 +1,7 @@
 package com.greenops.util.datamodel.mixin.auditlog;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public abstract class DeploymentLogMixin {
@@ -35,6 +36,9 @@ public abstract class DeploymentLogMixin {
     @JsonProperty(value = "brokenTestLog")
     private String brokenTestLog;
 
+    @JsonProperty(value = "brokenTestLogKey")
+    private String brokenTestLogKey;
+
     @JsonCreator
     DeploymentLogMixin(@JsonProperty(value = "pipelineUniqueVersionNumber") String pipelineUniqueVersionNumber,
                        @JsonProperty(value = "rollbackUniqueVersionNumber") String rollbackUniqueVersionNumber,
@@ -47,4 +51,8 @@ public abstract class DeploymentLogMixin {
                        @JsonProperty(value = "brokenTest") String brokenTest,
                        @JsonProperty(value = "brokenTestLog") String brokenTestLog) {
     }
+
+    //The test log is written from the field, so storing a log never loads a test log that is stored under its own key
+    @JsonIgnore
+    abstract String getBrokenTestLog();
 }
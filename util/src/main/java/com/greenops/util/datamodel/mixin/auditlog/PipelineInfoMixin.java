@@ -1,11 +1,12 @@
 package com.greenops.util.datamodel.mixin.auditlog;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
 
-public class PipelineInfoMixin {
+public abstract class PipelineInfoMixin {
     @JsonProperty(value = "pipelineUniqueVersionNumber")
     private String pipelineUvn;
 
@@ -15,9 +16,16 @@ public class PipelineInfoMixin {
     @JsonProperty(value = "stepList")
     private List<String> stepList;
 
+    @JsonProperty(value = "supersededBy")
+    private String supersededBy;
+
+    @JsonIgnore
+    abstract boolean isSkipped();
+
     @JsonCreator
     PipelineInfoMixin(@JsonProperty(value = "pipelineUniqueVersionNumber") String pipelineUvn,
                       @JsonProperty(value = "errors") List<String> errors,
-                      @JsonProperty(value = "stepList") List<String> stepList) {
+                      @JsonProperty(value = "stepList") List<String> stepList,
+                      @JsonProperty(value = "supersededBy") String supersededBy) {
     }
 }
@@ -0,0 +1,22 @@
+package com.greenops.util.datamodel.mixin.request;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.greenops.util.datamodel.git.GitRepoSchemaInfo;
+
+import java.util.List;
+
+public abstract class GetFilesRequestMixin {
+
+    @JsonProperty("gitRepoSchemaInfo")
+    GitRepoSchemaInfo gitRepoSchemaInfo;
+    @JsonProperty("filenames")
+    List<String> filenames;
+    @JsonProperty("gitCommitHash")
+    String gitCommitHash;
+
+    @JsonCreator
+    public GetFilesRequestMixin(@JsonProperty("gitRepoSchemaInfo") GitRepoSchemaInfo gitRepoSchemaInfo, @JsonProperty("filenames") List<String> filenames, @JsonProperty("gitCommitHash") String gitCommitHash) {
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.greenops.util.datamodel.request;
+
+import com.greenops.util.datamodel.git.GitRepoSchemaInfo;
+
+import java.util.List;
+
+public class GetFilesRequest {
+    private final GitRepoSchemaInfo gitRepoSchemaInfo;
+    private final List<String> filenames;
+    private final String gitCommitHash;
+
+    public GetFilesRequest(GitRepoSchemaInfo gitRepoSchemaInfo, List<String> filenames, String gitCommitHash) {
+        this.gitRepoSchemaInfo = gitRepoSchemaInfo;
+        this.filenames = filenames;
+        this.gitCommitHash = gitCommitHash;
+    }
+
+    public GitRepoSchemaInfo getGitRepoSchemaInfo() {
+        return gitRepoSchemaInfo;
+    }
+
+    public List<String> getFilenames() {
+        return filenames;
+    }
+
+    public String getGitCommitHash() {
+        return gitCommitHash;
+    }
+}
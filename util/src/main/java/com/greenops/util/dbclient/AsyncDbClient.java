@@ -0,0 +1,36 @@
+package com.greenops.util.dbclient;
+
+import com.greenops.util.datamodel.auditlog.DeploymentLog;
+import com.greenops.util.datamodel.auditlog.Log;
+import com.greenops.util.datamodel.auditlog.PipelineInfo;
+import com.greenops.util.datamodel.auditlog.RemediationLog;
+import com.greenops.util.datamodel.cluster.ClusterSchema;
+import com.greenops.util.datamodel.metadata.StepMetadata;
+import com.greenops.util.datamodel.pipeline.TeamSchema;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//Read-only, non-transactional counterpart to DbClient. None of these reads take part in optimistic locking, so they
+//should only be used for reads that are not followed by a write to the same key. Requests are sent as soon as they are
+//made, so independent reads issued back to back share a single network round trip.
+public interface AsyncDbClient {
+
+    public CompletableFuture<PipelineInfo> fetchLatestPipelineInfo(String key);
+
+    public CompletableFuture<TeamSchema> fetchTeamSchema(String key);
+
+    public CompletableFuture<ClusterSchema> fetchClusterSchema(String key);
+
+    public CompletableFuture<List<Log>> fetchLogList(String key, int increment);
+
+    public CompletableFuture<Log> fetchLatestLog(String key);
+
+    public CompletableFuture<DeploymentLog> fetchLatestDeploymentLog(String key);
+
+    public CompletableFuture<RemediationLog> fetchLatestRemediationLog(String key);
+
+    public CompletableFuture<StepMetadata> fetchMetadata(String key);
+
+    public void shutdown();
+}
@@ -14,6 +14,7 @@ import com.greenops.util.datamodel.clientmessages.ClientRequest;
 import com.greenops.util.error.AtlasBadKeyError;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface DbClient {
 
@@ -27,6 +28,19 @@ public interface DbClient {
 
     static final int LOG_INCREMENT = 15;
 
+    //A unit of work pins a pooled connection to the calling thread until it is ended. Reads made inside of it are cached
+    //for the rest of the unit of work, and stores are only applied to that cache until flush is called. A flush writes
+    //everything at once, and only if none of the keys changed since the unit of work fetched them. Writes that are not
+    //flushed by the end of the unit of work are dropped.
+    public void beginUnitOfWork();
+
+    public void flush();
+
+    public void endUnitOfWork();
+
+    //Drops what the unit of work has cached of keys it hasn't written, so that later reads of them see changes made since
+    public void forgetUnwrittenReads();
+
     public void storeValue(String key, Object schema);
 
     public void insertValueInList(String key, Object schema);
@@ -53,14 +67,42 @@ public interface DbClient {
 
     public Log fetchLatestLog(String key);
 
+    //Lazily walks the log list from the newest entry to the oldest. Pages are only read as the stream gets to them, so
+    //the stream should be consumed right away rather than held on to.
+    public Stream<Log> streamLogs(String key);
+
+    //Same walk, restricted to one log type and optionally one status. Entries that don't match are skipped without being
+    //deserialized.
+    public <T extends Log> Stream<T> streamLogs(String key, Class<T> logType);
+
+    public <T extends Log> Stream<T> streamLogs(String key, Class<T> logType, String status);
+
     public DeploymentLog fetchLatestDeploymentLog(String key);
 
     public RemediationLog fetchLatestRemediationLog(String key);
 
     public StepMetadata fetchMetadata(String key);
 
+    //Batch reads return one entry per key, in the same order as the keys. Missing keys map to null entries.
+    public List<DeploymentLog> fetchLatestDeploymentLogs(List<String> keys);
+
+    public List<StepMetadata> fetchMultipleMetadata(List<String> keys);
+
     public ClientRequestPacket fetchHeadInClientRequestList(String key) throws AtlasBadKeyError;
 
+    //Sorted sets hold members that are already serialized, lowest score first. They are read and written straight in
+    //Redis, outside of the unit of work. Adding a member that is already in the set keeps its original score.
+    public void addToSortedSet(String key, double score, String member);
+
+    //Returns null if the set is empty
+    public String fetchFirstInSortedSet(String key);
+
+    //Returns every member, lowest score first
+    public List<String> fetchSortedSet(String key);
+
+    //Returns whether the member was in the set, so that only one of several callers removing it acts on it
+    public boolean removeFromSortedSet(String key, String member);
+
     public void shutdown();
 }
 
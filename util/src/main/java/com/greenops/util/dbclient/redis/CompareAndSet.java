@@ -0,0 +1,135 @@
+package com.greenops.util.dbclient.redis;
+
+import com.greenops.util.error.AtlasNonRetryableError;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+//Writes are conditional on the etag of the key as it was when it was read. The etag is derived from the stored data
+//itself rather than kept in a separate version field, so writes made by the Go services are detected as well.
+//A value's etag is the SHA-1 of the value, and a list's etag is its length together with the SHA-1 of its head
+//(lists are only ever pushed/popped/set at the head). A missing key has an empty etag.
+final class CompareAndSet {
+
+    static final String NO_ETAG = "";
+    static final String INSERT_OPERATION = "insert";
+    static final String UPDATE_OPERATION = "update";
+    static final String POP_OPERATION = "pop";
+    static final String VALUE_ENTRY = "value";
+    static final String LIST_ENTRY = "list";
+
+    private static final String VALUE_ETAG_FUNCTION =
+            "local function value_etag(key) " +
+            "local value = redis.call('GET', key) " +
+            "if not value then return '' end " +
+            "return redis.sha1hex(value) " +
+            "end ";
+    static final String LIST_ETAG_FUNCTION =
+            "local function list_etag(key) " +
+            "local length = redis.call('LLEN', key) " +
+            "if length == 0 then return '' end " +
+            "return length .. ':' .. redis.sha1hex(redis.call('LINDEX', key, 0)) " +
+            "end ";
+
+    //KEYS: value key. ARGV: conditional flag, expected etag, value (absent to delete). Returns the new etag, or nil on
+    //an etag mismatch.
+    static final RedisScript STORE_VALUE_SCRIPT = new RedisScript(VALUE_ETAG_FUNCTION +
+            "if ARGV[1] == '1' and value_etag(KEYS[1]) ~= ARGV[2] then return false end " +
+            "if #ARGV < 3 then " +
+            "redis.call('DEL', KEYS[1]) " +
+            "return '' " +
+            "end " +
+            "redis.call('SET', KEYS[1], ARGV[3]) " +
+            "return redis.sha1hex(ARGV[3])");
+    //Updating the head of an empty list is a no-op
+    private static final String LIST_OPERATION_FUNCTION =
+            "local function apply_list_operation(key, index_key, operation, value, index_field) " +
+            "if operation == 'pop' then " +
+            "redis.call('LPOP', key) " +
+            "redis.call('DEL', index_key) " +
+            "return " +
+            "end " +
+            "local previous_length = redis.call('LLEN', key) " +
+            "if operation == 'insert' then redis.call('LPUSH', key, value) " +
+            "elseif previous_length == 0 then return " +
+            "else redis.call('LSET', key, 0, value) end " +
+            "if index_field ~= '' then " +
+            "local length = redis.call('LLEN', key) " +
+            "if tonumber(redis.call('HGET', index_key, 'length')) ~= previous_length then redis.call('DEL', index_key) end " +
+            "redis.call('HSET', index_key, index_field, length - 1, 'length', length) " +
+            "end " +
+            "end ";
+    //KEYS: list key, log index key. ARGV: conditional flag, expected etag, operation, value, log index field (empty
+    //if the value is not a log). Returns the new etag, or nil on an etag mismatch.
+    static final RedisScript STORE_LIST_SCRIPT = new RedisScript(LIST_ETAG_FUNCTION + LIST_OPERATION_FUNCTION +
+            "if ARGV[1] == '1' and list_etag(KEYS[1]) ~= ARGV[2] then return false end " +
+            "apply_list_operation(KEYS[1], KEYS[2], ARGV[3], ARGV[4], ARGV[5]) " +
+            "return list_etag(KEYS[1])");
+    //Writes out everything a unit of work has queued, all or nothing. KEYS: a key and its log index key for every entry.
+    //ARGV per entry: type ('value' or 'list'), conditional flag, expected etag, write count, then the writes. A value
+    //entry has one write (the value) or none (delete), a list entry has a triple of operation, value and log index
+    //field per write. Returns the new etag of every entry, or an empty list if any of the etags don't match.
+    static final RedisScript FLUSH_SCRIPT = new RedisScript(VALUE_ETAG_FUNCTION + LIST_ETAG_FUNCTION + LIST_OPERATION_FUNCTION +
+            "local entries = {} " +
+            "local argument = 1 " +
+            "for position = 1, #KEYS, 2 do " +
+            "local entry = {key = KEYS[position], index_key = KEYS[position + 1], type = ARGV[argument], " +
+            "conditional = ARGV[argument + 1], etag = ARGV[argument + 2], count = tonumber(ARGV[argument + 3]), first = argument + 4} " +
+            "if entry.type == 'list' then argument = entry.first + entry.count * 3 else argument = entry.first + entry.count end " +
+            "table.insert(entries, entry) " +
+            "end " +
+            "for _, entry in ipairs(entries) do " +
+            "if entry.conditional == '1' then " +
+            "local etag " +
+            "if entry.type == 'list' then etag = list_etag(entry.key) else etag = value_etag(entry.key) end " +
+            "if etag ~= entry.etag then return {} end " +
+            "end " +
+            "end " +
+            "local etags = {} " +
+            "for _, entry in ipairs(entries) do " +
+            "if entry.type == 'list' then " +
+            "for op = entry.first, entry.first + (entry.count - 1) * 3, 3 do " +
+            "apply_list_operation(entry.key, entry.index_key, ARGV[op], ARGV[op + 1], ARGV[op + 2]) " +
+            "end " +
+            "table.insert(etags, list_etag(entry.key)) " +
+            "elseif entry.count == 0 then " +
+            "redis.call('DEL', entry.key) " +
+            "table.insert(etags, '') " +
+            "else " +
+            "redis.call('SET', entry.key, ARGV[entry.first]) " +
+            "table.insert(etags, redis.sha1hex(ARGV[entry.first])) " +
+            "end " +
+            "end " +
+            "return etags");
+    //KEYS: list key. ARGV: start, stop. Returns the list's etag followed by the requested range.
+    static final RedisScript FETCH_LIST_RANGE_SCRIPT = new RedisScript(LIST_ETAG_FUNCTION +
+            "local result = redis.call('LRANGE', KEYS[1], ARGV[1], ARGV[2]) " +
+            "table.insert(result, 1, list_etag(KEYS[1])) " +
+            "return result");
+
+    private CompareAndSet() {
+    }
+
+    static String valueEtag(String value) {
+        return value == null ? NO_ETAG : sha1Hex(value);
+    }
+
+    //Values are held as one char per byte (see ValueCodec) and scripts are plain ASCII, so this hashes the same bytes Redis does
+    static String sha1Hex(String value) {
+        return sha1Hex(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static String sha1Hex(byte[] value) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest(value);
+            var hex = new StringBuilder(digest.length * 2);
+            for (var b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+}
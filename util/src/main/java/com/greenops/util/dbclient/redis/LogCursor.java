@@ -0,0 +1,52 @@
+package com.greenops.util.dbclient.redis;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+import static com.greenops.util.dbclient.DbClient.LOG_INCREMENT;
+
+//Walks a log list from the head one page at a time, handing out entries as they are stored so callers can filter them
+//before paying for deserialization. The next page is requested once the consumer is halfway through the current one, so
+//searches that stop early never pay for the rest.
+final class LogCursor implements Iterator<String> {
+
+    private final IntFunction<CompletableFuture<List<String>>> pageFetcher;
+    private List<String> page = List.of();
+    private int pageIdx = 0;
+    private int increment = 0;
+    private boolean lastPage = false;
+    private CompletableFuture<List<String>> nextPage;
+
+    LogCursor(IntFunction<CompletableFuture<List<String>>> pageFetcher) {
+        this.pageFetcher = pageFetcher;
+        nextPage = pageFetcher.apply(increment);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pageIdx < page.size()) return true;
+        if (lastPage) return false;
+        if (nextPage == null) {
+            nextPage = pageFetcher.apply(++increment);
+        }
+        page = nextPage.join();
+        nextPage = null;
+        pageIdx = 0;
+        //A page that isn't full is the end of the list
+        lastPage = page.size() < LOG_INCREMENT;
+        return !page.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        var logJson = page.get(pageIdx++);
+        if (nextPage == null && !lastPage && pageIdx >= page.size() / 2) {
+            nextPage = pageFetcher.apply(++increment);
+        }
+        return logJson;
+    }
+}
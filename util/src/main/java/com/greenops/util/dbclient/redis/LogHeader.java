@@ -0,0 +1,41 @@
+package com.greenops.util.dbclient.redis;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+//Checks the type discriminator (and optionally the status) of a stored log without binding it. The parser stops as soon
+//as the answer is known, which for logs written by Jackson is usually the first field, since the type id is written first.
+final class LogHeader {
+
+    private static final String TYPE_FIELD = "type";
+    private static final String STATUS_FIELD = "status";
+
+    private LogHeader() {
+    }
+
+    //Type names are the same as the log index fields. A null status matches any status.
+    static boolean matches(JsonParser logParser, String typeName, String status) throws IOException {
+        try (var parser = logParser) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return false;
+            var typeMatched = false;
+            var statusMatched = status == null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (TYPE_FIELD.equals(fieldName)) {
+                    if (!typeName.equals(parser.getValueAsString())) return false;
+                    typeMatched = true;
+                } else if (STATUS_FIELD.equals(fieldName) && status != null) {
+                    if (!status.equals(parser.getValueAsString())) return false;
+                    statusMatched = true;
+                } else {
+                    parser.skipChildren();
+                }
+                if (typeMatched && statusMatched) return true;
+            }
+            return false;
+        }
+    }
+}
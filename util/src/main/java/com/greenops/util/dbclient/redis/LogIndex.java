@@ -0,0 +1,55 @@
+package com.greenops.util.dbclient.redis;
+
+import com.greenops.util.datamodel.auditlog.Log;
+import com.greenops.util.datamodel.auditlog.RemediationLog;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.LIST_ETAG_FUNCTION;
+
+//Every log list has a companion hash which points at the latest log of each type. Positions are counted from the
+//tail of the list, since entries are only ever pushed/popped at the head and therefore never move relative to the tail.
+final class LogIndex {
+
+    static final String LOG_INDEX_SUFFIX = "-index";
+    static final String DEPLOYMENT_LOG_INDEX_FIELD = "deployment";
+    static final String REMEDIATION_LOG_INDEX_FIELD = "stateremediation";
+    static final long NO_LOG_POSITION = -1;
+    //The index also records the list length it was last written against. Writers that do not maintain the index
+    //(like the Go services) change the length, which invalidates the index until it is rebuilt by a scan.
+    //The index itself is kept up to date by CompareAndSet.STORE_LIST_SCRIPT.
+    //KEYS: log list key, log index key. ARGV: index field. Returns the list's etag followed by the indexed log, which is
+    //nil if the index is missing or stale and empty if the index knows that no log of this type exists.
+    static final RedisScript FETCH_INDEXED_LOG_SCRIPT = new RedisScript(LIST_ETAG_FUNCTION +
+            "local etag = list_etag(KEYS[1]) " +
+            "local position = redis.call('HGET', KEYS[2], ARGV[1]) " +
+            "if not position then return {etag, false} end " +
+            "if tonumber(redis.call('HGET', KEYS[2], 'length')) ~= redis.call('LLEN', KEYS[1]) then return {etag, false} end " +
+            "if tonumber(position) < 0 then return {etag, ''} end " +
+            "return {etag, redis.call('LINDEX', KEYS[1], -1 - tonumber(position))}");
+    //KEYS: log list key, log index key. ARGV: index field, position, list length the position was found against.
+    static final RedisScript REPAIR_LOG_INDEX_SCRIPT = new RedisScript(
+            "local length = redis.call('LLEN', KEYS[1]) " +
+            "if length ~= tonumber(ARGV[3]) then return 0 end " +
+            "if tonumber(redis.call('HGET', KEYS[2], 'length')) ~= length then redis.call('DEL', KEYS[2]) end " +
+            "redis.call('HSET', KEYS[2], ARGV[1], ARGV[2], 'length', length) " +
+            "return 1");
+
+    private LogIndex() {
+    }
+
+    static String makeLogIndexKey(String key) {
+        return key + LOG_INDEX_SUFFIX;
+    }
+
+    static String getLogIndexField(Log log) {
+        return log instanceof RemediationLog ? REMEDIATION_LOG_INDEX_FIELD : DEPLOYMENT_LOG_INDEX_FIELD;
+    }
+
+    static String getLogIndexField(Class<? extends Log> logType) {
+        return RemediationLog.class.isAssignableFrom(logType) ? REMEDIATION_LOG_INDEX_FIELD : DEPLOYMENT_LOG_INDEX_FIELD;
+    }
+
+    //Converts a position counted from the head of the list into the tail-relative position stored in the index
+    static long toIndexPosition(long length, long positionFromHead) {
+        return length - 1 - positionFromHead;
+    }
+}
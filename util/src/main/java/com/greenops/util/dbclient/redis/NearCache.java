@@ -0,0 +1,164 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.greenops.util.dbclient.redis.ValueCodec.CONNECTION_CODEC;
+
+//Keeps the stored values of documents that rarely change (team schemas, cluster schemas, step metadata) in process.
+//Every key is read through the cache's own connection, which has client side tracking turned on, so Redis pushes an
+//invalidation on that connection as soon as the key changes, no matter who changed it. Anything that could make the
+//cache miss an invalidation (the connection dropping, a server without tracking) empties it and stops it from caching
+//until tracking is back on.
+@Slf4j
+final class NearCache {
+
+    private final RedisClient redisClient;
+    private final StatefulRedisConnection<String, String> connection;
+    //Least recently used entries are evicted first. A null value means the key doesn't exist.
+    private final Map<String, String> values;
+    //Guarded by values. Reads only cache what they read if nothing was invalidated while the read was in flight.
+    private long invalidationCount = 0;
+    private volatile boolean tracking = false;
+    private volatile boolean trackingSupported = true;
+
+    NearCache(RedisClient sharedClient, String redisUri, int maxEntries) {
+        values = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        //A client of its own so its connection events can be told apart. The event loops are shared.
+        redisClient = RedisClient.create(sharedClient.getResources(), redisUri);
+        redisClient.addListener(new RedisConnectionStateListener() {
+            @Override
+            public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+                stopTracking();
+            }
+
+            @Override
+            public void onRedisExceptionCaught(RedisChannelHandler<?, ?> connection, Throwable cause) {
+            }
+        });
+        connection = redisClient.connect(CONNECTION_CODEC);
+        connection.addListener(this::onPushMessage);
+    }
+
+    //Returns the stored value, or null if the key doesn't exist
+    String get(String key) {
+        synchronized (values) {
+            if (values.containsKey(key)) return values.get(key);
+        }
+        var readFrom = startRead();
+        var value = connection.sync().get(key);
+        finishRead(readFrom, List.of(key), Collections.singletonList(value));
+        return value;
+    }
+
+    List<String> getAll(List<String> keys) {
+        var result = new ArrayList<String>(keys.size());
+        var missingIdxs = new ArrayList<Integer>();
+        var missingKeys = new ArrayList<String>();
+        synchronized (values) {
+            for (var key : keys) {
+                if (!values.containsKey(key)) {
+                    missingIdxs.add(result.size());
+                    missingKeys.add(key);
+                }
+                result.add(values.get(key));
+            }
+        }
+        if (missingKeys.isEmpty()) return result;
+        var readFrom = startRead();
+        var readValues = new ArrayList<String>(missingKeys.size());
+        for (var keyValue : connection.sync().mget(missingKeys.toArray(new String[0]))) {
+            readValues.add(keyValue.getValueOrElse(null));
+        }
+        finishRead(readFrom, missingKeys, readValues);
+        for (var idx = 0; idx < missingIdxs.size(); idx++) {
+            result.set(missingIdxs.get(idx), readValues.get(idx));
+        }
+        return result;
+    }
+
+    //Called for writes made through this client, so its own threads never wait on the invalidation coming back
+    void invalidate(String key) {
+        synchronized (values) {
+            invalidationCount++;
+            values.remove(key);
+        }
+    }
+
+    void close() {
+        connection.close();
+        redisClient.shutdown();
+    }
+
+    //Returns the invalidation count the read starts from, or -1 if what it reads can't be cached
+    private long startRead() {
+        if (!tracking && trackingSupported) startTracking();
+        synchronized (values) {
+            return tracking ? invalidationCount : -1;
+        }
+    }
+
+    private void finishRead(long readFrom, List<String> keys, List<String> readValues) {
+        synchronized (values) {
+            if (readFrom < 0 || readFrom != invalidationCount || !tracking) return;
+            for (var idx = 0; idx < keys.size(); idx++) {
+                values.put(keys.get(idx), readValues.get(idx));
+            }
+        }
+    }
+
+    private void startTracking() {
+        try {
+            connection.sync().clientTracking(TrackingArgs.Builder.enabled());
+            synchronized (values) {
+                tracking = true;
+            }
+        } catch (RedisException e) {
+            //Servers before Redis 6 can't track keys. Values are then always read from Redis.
+            log.warn("Client side tracking could not be turned on, the near cache is disabled.", e);
+            trackingSupported = false;
+        }
+    }
+
+    private void stopTracking() {
+        synchronized (values) {
+            tracking = false;
+            invalidationCount++;
+            values.clear();
+        }
+    }
+
+    //The message holds the keys that changed, or no keys at all when the whole database was flushed
+    private void onPushMessage(PushMessage message) {
+        if (!message.getType().equals("invalidate")) return;
+        var content = message.getContent(StringCodec.UTF8::decodeKey);
+        synchronized (values) {
+            invalidationCount++;
+            if (content.size() < 2 || !(content.get(1) instanceof List)) {
+                values.clear();
+                return;
+            }
+            for (var key : (List<?>) content.get(1)) {
+                values.remove((String) key);
+            }
+        }
+    }
+}
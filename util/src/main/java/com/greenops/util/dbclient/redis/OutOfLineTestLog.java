@@ -0,0 +1,96 @@
+package com.greenops.util.dbclient.redis;
+
+import com.greenops.util.datamodel.auditlog.DeploymentLog;
+import com.greenops.util.datamodel.auditlog.Log;
+import com.greenops.util.error.AtlasNonRetryableError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.sha1Hex;
+
+//Large test logs are stored gzipped under a key derived from their content, and the log entry only keeps that key. Reads
+//of a step's history then never carry the test output, which is only fetched if the test log itself is read. The key
+//starts with the step's key, so the test logs are removed along with everything else under the pipeline.
+final class OutOfLineTestLog {
+
+    //In chars. Smaller test logs cost less inline than as a separate key.
+    static final int OUT_OF_LINE_THRESHOLD = 2048;
+
+    private OutOfLineTestLog() {
+    }
+
+    static boolean isOutOfLine(DeploymentLog deploymentLog) {
+        var testLogKey = deploymentLog.getBrokenTestLogKey();
+        return testLogKey != null && !testLogKey.isEmpty();
+    }
+
+    static String makeTestLogKey(String logKey, String testLog) {
+        return logKey + "-testlog-" + sha1Hex(testLog.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //The copy only has the key, so encoding it leaves the test log out
+    static DeploymentLog withTestLogKey(DeploymentLog deploymentLog, String testLogKey) {
+        var copy = new DeploymentLog(deploymentLog.getPipelineUniqueVersionNumber(), deploymentLog.getRollbackUniqueVersionNumber(),
+                deploymentLog.getUniqueVersionInstance(), deploymentLog.getStatus(), deploymentLog.isDeploymentComplete(),
+                deploymentLog.getArgoApplicationName(), deploymentLog.getArgoRevisionHash(), deploymentLog.getGitCommitVersion(),
+                deploymentLog.getBrokenTest(), null);
+        copy.setBrokenTestLogKey(testLogKey, null);
+        return copy;
+    }
+
+    //Logs read from the database only get a loader, the test log is fetched by whoever calls getBrokenTestLog() first
+    static void attachLoader(Log log, Function<String, String> valueFetcher) {
+        if (!(log instanceof DeploymentLog) || !isOutOfLine((DeploymentLog) log)) return;
+        var deploymentLog = (DeploymentLog) log;
+        var testLogKey = deploymentLog.getBrokenTestLogKey();
+        deploymentLog.setBrokenTestLogKey(testLogKey, new TestLogLoader(() -> decompress(valueFetcher.apply(testLogKey))));
+    }
+
+    //Returns the compressed test log as a string holding one char per byte, the same as any other stored value
+    static String compress(String testLog) {
+        try {
+            var compressed = new ByteArrayOutputStream();
+            try (var gzipOutputStream = new GZIPOutputStream(compressed)) {
+                gzipOutputStream.write(testLog.getBytes(StandardCharsets.UTF_8));
+            }
+            return new String(compressed.toByteArray(), StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    //A test log that is gone (for example after a pipeline was removed) reads as null
+    static String decompress(String storedTestLog) {
+        if (storedTestLog == null) return null;
+        try (var gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(storedTestLog.getBytes(StandardCharsets.ISO_8859_1)))) {
+            return new String(gzipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    private static final class TestLogLoader implements Supplier<String> {
+        private Supplier<String> loader;
+        private String testLog;
+
+        private TestLogLoader(Supplier<String> loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public String get() {
+            if (loader != null) {
+                testLog = loader.get();
+                loader = null;
+            }
+            return testLog;
+        }
+    }
+}
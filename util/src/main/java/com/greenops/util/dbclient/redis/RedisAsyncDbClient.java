@@ -0,0 +1,183 @@
+package com.greenops.util.dbclient.redis;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.util.datamodel.auditlog.DeploymentLog;
+import com.greenops.util.datamodel.auditlog.Log;
+import com.greenops.util.datamodel.auditlog.PipelineInfo;
+import com.greenops.util.datamodel.auditlog.RemediationLog;
+import com.greenops.util.datamodel.cluster.ClusterSchema;
+import com.greenops.util.datamodel.metadata.StepMetadata;
+import com.greenops.util.datamodel.pipeline.TeamSchema;
+import com.greenops.util.dbclient.AsyncDbClient;
+import com.greenops.util.error.AtlasNonRetryableError;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.greenops.util.dbclient.DbClient.LOG_INCREMENT;
+import static com.greenops.util.dbclient.redis.LogIndex.*;
+import static com.greenops.util.dbclient.redis.OutOfLineTestLog.attachLoader;
+import static com.greenops.util.dbclient.redis.ValueCodec.CONNECTION_CODEC;
+
+@Slf4j
+public class RedisAsyncDbClient implements AsyncDbClient {
+    private final RedisClient redisClient;
+    private final StatefulRedisConnection<String, String> redisConnection;
+    private final RedisAsyncCommands<String, String> redisCommands;
+    private final ValueCodec valueCodec;
+
+    public RedisAsyncDbClient(String redisUrl, ObjectMapper objectMapper) {
+        redisClient = RedisClient.create("redis://" + redisUrl); //Pattern is redis://password@host:port
+        //The connection is kept separate from the transactional client so that slow scans never hold up its writes
+        redisConnection = redisClient.connect(CONNECTION_CODEC);
+        redisCommands = redisConnection.async();
+        //Nothing is written through this client, and reads decode values in whichever format they were written in
+        valueCodec = new ValueCodec(objectMapper, ValueFormat.JSON);
+    }
+
+    @Override
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down async Redis client...");
+        redisConnection.close();
+        redisClient.shutdown();
+    }
+
+    //Missing keys come back as null values, so there is no separate EXISTS call
+    @Override
+    public CompletableFuture<PipelineInfo> fetchLatestPipelineInfo(String key) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        return redisCommands.lindex(key, 0).toCompletableFuture().thenApply(result -> readValue(result, PipelineInfo.class));
+    }
+
+    @Override
+    public CompletableFuture<TeamSchema> fetchTeamSchema(String key) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        return redisCommands.get(key).toCompletableFuture().thenApply(result -> readValue(result, TeamSchema.class));
+    }
+
+    @Override
+    public CompletableFuture<ClusterSchema> fetchClusterSchema(String key) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        return redisCommands.get(key).toCompletableFuture().thenApply(result -> readValue(result, ClusterSchema.class));
+    }
+
+    @Override
+    public CompletableFuture<List<Log>> fetchLogList(String key, int increment) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        var startIdx = increment * LOG_INCREMENT;
+        return redisCommands.lrange(key, startIdx, startIdx + LOG_INCREMENT - 1).toCompletableFuture().thenApply(result -> {
+            var logList = new ArrayList<Log>();
+            for (var string : result) {
+                logList.add(readLog(string));
+            }
+            return logList;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Log> fetchLatestLog(String key) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        return redisCommands.lindex(key, 0).toCompletableFuture().thenApply(this::readLog);
+    }
+
+    @Override
+    public CompletableFuture<DeploymentLog> fetchLatestDeploymentLog(String key) {
+        return fetchIndexedLog(key, DeploymentLog.class).thenApply(DeploymentLog.class::cast);
+    }
+
+    @Override
+    public CompletableFuture<RemediationLog> fetchLatestRemediationLog(String key) {
+        return fetchIndexedLog(key, RemediationLog.class).thenApply(RemediationLog.class::cast);
+    }
+
+    @Override
+    public CompletableFuture<StepMetadata> fetchMetadata(String key) {
+        log.info("Fetching schema asynchronously for key {}", key);
+        return redisCommands.get(key).toCompletableFuture().thenApply(result -> readValue(result, StepMetadata.class));
+    }
+
+    private CompletableFuture<Log> fetchIndexedLog(String key, Class<? extends Log> logType) {
+        log.info("Fetching indexed log asynchronously for key {}", key);
+        var indexField = getLogIndexField(logType);
+        return FETCH_INDEXED_LOG_SCRIPT.<List<Object>>eval(redisCommands, ScriptOutputType.MULTI, new String[]{key, makeLogIndexKey(key)}, indexField)
+                .thenCompose(etagAndLog -> {
+                    //Reads here are never followed by a conditional write, so the etag is ignored
+                    var result = (String) etagAndLog.get(1);
+                    if (result != null) {
+                        //An empty result means the index knows that no log of this type exists
+                        if (result.isEmpty()) return CompletableFuture.completedFuture(null);
+                        if (isLogOfType(result, indexField)) {
+                            return CompletableFuture.completedFuture(readLog(result));
+                        }
+                    }
+                    return scanForLog(key, indexField);
+                });
+    }
+
+    private CompletableFuture<Log> scanForLog(String key, String indexField) {
+        log.info("Log index for key {} is missing or stale, scanning log list", key);
+        return redisCommands.llen(key).toCompletableFuture().thenCompose(length -> {
+            if (length == 0) return CompletableFuture.completedFuture(null);
+            return scanLogPage(key, indexField, length, 0);
+        });
+    }
+
+    //Entries are only deserialized once one of the right type is found
+    private CompletableFuture<Log> scanLogPage(String key, String indexField, long length, int logIncrement) {
+        var startIdx = logIncrement * LOG_INCREMENT;
+        return redisCommands.lrange(key, startIdx, startIdx + LOG_INCREMENT - 1).toCompletableFuture().thenCompose(logList -> {
+            if (logList.size() == 0) {
+                repairLogIndex(key, indexField, NO_LOG_POSITION, length);
+                return CompletableFuture.completedFuture(null);
+            }
+            for (var idx = 0; idx < logList.size(); idx++) {
+                if (isLogOfType(logList.get(idx), indexField)) {
+                    repairLogIndex(key, indexField, toIndexPosition(length, (long) logIncrement * LOG_INCREMENT + idx), length);
+                    return CompletableFuture.completedFuture(readLog(logList.get(idx)));
+                }
+            }
+            return scanLogPage(key, indexField, length, logIncrement + 1);
+        });
+    }
+
+    //The repair is fire-and-forget, a failed repair only means the next lookup scans again
+    private void repairLogIndex(String key, String indexField, long position, long length) {
+        REPAIR_LOG_INDEX_SCRIPT.eval(redisCommands, ScriptOutputType.INTEGER, new String[]{key, makeLogIndexKey(key)}, indexField, String.valueOf(position), String.valueOf(length));
+    }
+
+    private boolean isLogOfType(String logJson, String indexField) {
+        try {
+            return LogHeader.matches(valueCodec.createParser(logJson), indexField, null);
+        } catch (IOException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    //Test logs stored out of line are fetched on the calling thread when they are first read
+    private Log readLog(String value) {
+        var storedLog = readValue(value, Log.class);
+        attachLoader(storedLog, testLogKey -> redisConnection.sync().get(testLogKey));
+        return storedLog;
+    }
+
+    private <T> T readValue(String value, Class<T> valueType) {
+        if (value == null) return null;
+        try {
+            return valueCodec.decode(value, valueType);
+        } catch (JsonProcessingException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+}
@@ -15,40 +15,152 @@ import com.greenops.util.error.AtlasBadKeyError;
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.util.error.AtlasRetryableError;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.ZAddArgs;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.support.ConnectionPoolSupport;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.*;
+import static com.greenops.util.dbclient.redis.LogIndex.*;
+import static com.greenops.util.dbclient.redis.OutOfLineTestLog.*;
+import static com.greenops.util.dbclient.redis.ValueCodec.CONNECTION_CODEC;
 
 @Slf4j
 public class RedisDbClient implements DbClient {
     private static final String REDIS_SUCCESS_MESSAGE = "OK";
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_NEAR_CACHE_SIZE = 1024;
     //TODO: Eventually we should have a configuration factory/file which will choose which component to pick. For now this is fine.
     private final RedisClient redisClient;
+    //Used by calls made outside of a unit of work. None of the commands leave state behind on the connection, so it can be
+    //shared by all threads.
     private final StatefulRedisConnection<String, String> redisConnection;
-    private final RedisCommands<String, String> redisCommands;
+    private final GenericObjectPool<StatefulRedisConnection<String, String>> connectionPool;
     private final ObjectMapper objectMapper;
-    private String currentWatchedKey;
+    private final ValueCodec valueCodec;
+    //Null when the near cache is turned off
+    private final NearCache nearCache;
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<>();
+    //Outside of a unit of work, only the most recently fetched key is protected. A store to that same key only goes through
+    //if the key is unchanged since the fetch, which is the guarantee the client used to get from WATCHing its last fetched key.
+    private final ThreadLocal<Map.Entry<String, String>> lastFetchedEtag = new ThreadLocal<>();
 
     public RedisDbClient(String redisUrl, ObjectMapper objectMapper) {
+        this(redisUrl, DEFAULT_MAX_CONNECTIONS, DEFAULT_NEAR_CACHE_SIZE, ValueFormat.JSON, objectMapper);
+    }
+
+    public RedisDbClient(String redisUrl, int maxConnections, int nearCacheSize, ValueFormat valueFormat, ObjectMapper objectMapper) {
         redisClient = RedisClient.create("redis://" + redisUrl); //Pattern is redis://password@host:port
-        redisConnection = redisClient.connect();
-        redisCommands = redisConnection.sync();
+        redisConnection = redisClient.connect(CONNECTION_CODEC);
+        var poolConfig = new GenericObjectPoolConfig<StatefulRedisConnection<String, String>>();
+        poolConfig.setMaxTotal(maxConnections);
+        poolConfig.setMaxIdle(maxConnections);
+        connectionPool = ConnectionPoolSupport.createGenericObjectPool(() -> redisClient.connect(CONNECTION_CODEC), poolConfig);
         this.objectMapper = objectMapper;
+        valueCodec = new ValueCodec(objectMapper, valueFormat);
+        nearCache = nearCacheSize > 0 ? new NearCache(redisClient, "redis://" + redisUrl, nearCacheSize) : null;
     }
 
     @Override
     @PreDestroy
     public void shutdown() {
         log.info("Shutting down Redis client...");
-        redisCommands.unwatch();
+        connectionPool.close();
+        if (nearCache != null) nearCache.close();
         redisConnection.close();
         redisClient.shutdown();
     }
 
+    @Override
+    public void beginUnitOfWork() {
+        if (currentUnitOfWork.get() != null) {
+            throw new AtlasNonRetryableError("A unit of work is already in progress on this thread");
+        }
+        try {
+            currentUnitOfWork.set(new UnitOfWork(connectionPool.borrowObject()));
+        } catch (Exception e) {
+            log.error("Could not get a Redis connection from the pool.", e);
+            throw new AtlasRetryableError(e);
+        }
+    }
+
+    //Writes that were not flushed are dropped, so a unit of work that fails part way leaves nothing half written behind
+    @Override
+    public void endUnitOfWork() {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork == null) return;
+        if (unitOfWork.hasPendingWrites()) {
+            log.info("Discarding unflushed writes for keys {}", unitOfWork.getDirtyKeys());
+        }
+        currentUnitOfWork.remove();
+        connectionPool.returnObject(unitOfWork.connection);
+    }
+
+    @Override
+    public void forgetUnwrittenReads() {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) unitOfWork.forgetUnwrittenReads();
+    }
+
+    @Override
+    public void flush() {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork == null || !unitOfWork.hasPendingWrites()) return;
+        log.info("Flushing writes for keys {}", unitOfWork.getDirtyKeys());
+        var keys = new ArrayList<String>();
+        var args = new ArrayList<String>();
+        for (var key : unitOfWork.getDirtyKeys()) {
+            keys.add(key);
+            keys.add(makeLogIndexKey(key));
+            if (unitOfWork.isList(key)) {
+                var cachedList = unitOfWork.getList(key);
+                addEntryHeader(args, LIST_ENTRY, cachedList.etag, cachedList.pendingOperations.size());
+                for (var listOperation : cachedList.pendingOperations) {
+                    args.add(listOperation.operation);
+                    args.add(listOperation.value);
+                    args.add(listOperation.indexField);
+                }
+            } else {
+                var cachedValue = unitOfWork.getValue(key);
+                addEntryHeader(args, VALUE_ENTRY, cachedValue.etag, cachedValue.value == null ? 0 : 1);
+                if (cachedValue.value != null) args.add(cachedValue.value);
+            }
+        }
+        List<String> etags = FLUSH_SCRIPT.eval(commands(), ScriptOutputType.MULTI, keys.toArray(new String[0]), args.toArray(new String[0]));
+        //Whether or not the writes went through, what the near cache holds for these keys is likely out of date
+        for (var key : unitOfWork.getDirtyKeys()) {
+            if (!unitOfWork.isList(key)) invalidateNearCache(key);
+        }
+        //Either all of the writes are applied or, if any of the keys changed since they were fetched, none of them are
+        if (etags.isEmpty()) {
+            throw new AtlasRetryableError("The transaction was interrupted");
+        }
+        unitOfWork.markFlushed(etags);
+    }
+
+    private void addEntryHeader(List<String> args, String entryType, String etag, int writeCount) {
+        args.add(entryType);
+        args.add(etag != null ? "1" : "0");
+        args.add(etag != null ? etag : NO_ETAG);
+        args.add(String.valueOf(writeCount));
+    }
+
     @Override
     public void storeValue(String key, Object schema) {
         store(key, schema, ListStoreOperation.NONE);
@@ -62,12 +174,14 @@ public class RedisDbClient implements DbClient {
     //This is done explicitly due to how rare the use case is. Should generally never be done.
     @Override
     public void insertValueInTransactionlessList(String key, Object schema) {
+        //Whoever picks up this entry has to see the writes that led to it
+        flush();
         log.info("Storing schema for key without a transaction {}", key);
         try {
             if (schema == null) {
-                redisCommands.rpop(key);
+                commands().rpop(key);
             } else {
-                redisCommands.rpush(key, objectMapper.writeValueAsString(schema));
+                commands().rpush(key, valueCodec.encode(schema));
             }
         } catch (JsonProcessingException e) {
             log.error("Jackson object mapping/serialization failed.", e);
@@ -83,15 +197,16 @@ public class RedisDbClient implements DbClient {
     //This is done explicitly due to how rare the use case is. Should generally never be done.
     @Override
     public void updateHeadInTransactionlessList(String key, Object schema) throws AtlasBadKeyError {
-        if (redisCommands.exists(key) == 0) {
+        flush();
+        if (commands().exists(key) == 0) {
             throw new AtlasBadKeyError();
         }
         log.info("Storing schema for key without a transaction {}", key);
         try {
             if (schema == null) {
-                redisCommands.lpop(key);
+                commands().lpop(key);
             } else {
-                redisCommands.lpush(key, objectMapper.writeValueAsString(schema));
+                commands().lpush(key, valueCodec.encode(schema));
             }
         } catch (JsonProcessingException e) {
             log.error("Jackson object mapping/serialization failed.", e);
@@ -102,34 +217,35 @@ public class RedisDbClient implements DbClient {
     private void store(String key, Object schema, ListStoreOperation listStoreOperation) {
         try {
             log.info("Storing schema for key {}", key);
-            if (!key.equals(currentWatchedKey)) {
-                redisCommands.unwatch();
-                currentWatchedKey = null;
+            var unitOfWork = currentUnitOfWork.get();
+            if (unitOfWork != null) {
+                queueStore(unitOfWork, key, schema, listStoreOperation);
+                return;
             }
-            redisCommands.multi();
+            var expectedEtag = takeExpectedEtag(key);
+            var conditional = expectedEtag != null ? "1" : "0";
+            if (expectedEtag == null) expectedEtag = NO_ETAG;
+            String newEtag;
             //Passing in a null means the key should be deleted
             if (listStoreOperation == ListStoreOperation.NONE) {
-                if (schema == null) {
-                    redisCommands.del(key);
-                } else {
-                    redisCommands.set(key, objectMapper.writeValueAsString(schema));
-                }
-            } else if (listStoreOperation == ListStoreOperation.INSERT) {
-                if (schema == null) {
-                    redisCommands.lpop(key);
-                } else {
-                    redisCommands.lpush(key, objectMapper.writeValueAsString(schema));
-                }
-            } else if (listStoreOperation == ListStoreOperation.UPDATE) {
-                if (schema == null) {
-                    redisCommands.lpop(key);
-                } else {
-                    redisCommands.lset(key, 0, objectMapper.writeValueAsString(schema));
+                var args = schema == null
+                        ? new String[]{conditional, expectedEtag}
+                        : new String[]{conditional, expectedEtag, encode(key, schema)};
+                newEtag = STORE_VALUE_SCRIPT.eval(commands(), ScriptOutputType.VALUE, new String[]{key}, args);
+                invalidateNearCache(key);
+            } else {
+                var operation = POP_OPERATION;
+                var value = "";
+                var indexField = "";
+                if (schema != null) {
+                    operation = listStoreOperation == ListStoreOperation.INSERT ? INSERT_OPERATION : UPDATE_OPERATION;
+                    value = encode(key, schema);
+                    indexField = schema instanceof Log ? getLogIndexField((Log) schema) : "";
                 }
+                newEtag = STORE_LIST_SCRIPT.eval(commands(), ScriptOutputType.VALUE, new String[]{key, makeLogIndexKey(key)}, conditional, expectedEtag, operation, value, indexField);
             }
-            var result = redisCommands.exec();
-            //Either all of the transaction is processed or all of it is discarded
-            if (result.wasDiscarded()) {
+            //Either all of the write is applied or, if the key changed since it was fetched, none of it is
+            if (newEtag == null) {
                 throw new AtlasRetryableError("The transaction was interrupted");
             }
         } catch (JsonProcessingException e) {
@@ -138,6 +254,41 @@ public class RedisDbClient implements DbClient {
         }
     }
 
+    //Inside a unit of work, writes are only applied to what the unit of work has cached and are sent to Redis on flush
+    private void queueStore(UnitOfWork unitOfWork, String key, Object schema, ListStoreOperation listStoreOperation) throws JsonProcessingException {
+        //Passing in a null means the key should be deleted
+        var value = schema == null ? null : encode(key, schema);
+        if (listStoreOperation == ListStoreOperation.NONE) {
+            unitOfWork.storeValue(key, value);
+        } else if (schema == null) {
+            unitOfWork.storeInList(key, POP_OPERATION, "", "");
+        } else {
+            var operation = listStoreOperation == ListStoreOperation.INSERT ? INSERT_OPERATION : UPDATE_OPERATION;
+            unitOfWork.storeInList(key, operation, value, schema instanceof Log ? getLogIndexField((Log) schema) : "");
+        }
+    }
+
+    private String encode(String key, Object schema) throws JsonProcessingException {
+        if (schema instanceof DeploymentLog) return valueCodec.encode(moveTestLogOutOfLine(key, (DeploymentLog) schema));
+        return valueCodec.encode(schema);
+    }
+
+    //The test log has to be in Redis before the entry pointing to it. Inside a unit of work both go out in the same flush.
+    //Returns the log to store, which is a copy if the test log was moved so the caller's log keeps its test log.
+    private DeploymentLog moveTestLogOutOfLine(String key, DeploymentLog deploymentLog) {
+        if (OutOfLineTestLog.isOutOfLine(deploymentLog)) return deploymentLog;
+        var testLog = deploymentLog.getBrokenTestLog();
+        if (testLog == null || testLog.length() < OUT_OF_LINE_THRESHOLD) return deploymentLog;
+        var testLogKey = makeTestLogKey(key, testLog);
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            unitOfWork.storeValue(testLogKey, compress(testLog));
+        } else {
+            commands().set(testLogKey, compress(testLog));
+        }
+        return withTestLogKey(deploymentLog, testLogKey);
+    }
+
     @Override
     public PipelineInfo fetchLatestPipelineInfo(String key) {
         return (PipelineInfo) fetch(key, ObjectType.PIPELINE_INFO, -1);
@@ -182,53 +333,48 @@ public class RedisDbClient implements DbClient {
         return (Log) fetch(key, ObjectType.SINGLE_LOG, -1);
     }
 
+    @Override
+    public Stream<Log> streamLogs(String key) {
+        return streamLogJson(key).map(this::readLog);
+    }
+
+    //Entries are matched on their type (and status) before they are deserialized, so logs that are skipped over are never
+    //bound
+    @Override
+    public <T extends Log> Stream<T> streamLogs(String key, Class<T> logType) {
+        return streamLogs(key, logType, null);
+    }
+
+    @Override
+    public <T extends Log> Stream<T> streamLogs(String key, Class<T> logType, String status) {
+        var indexField = getLogIndexField(logType);
+        return streamLogJson(key)
+                .filter(logJson -> isLogOfType(logJson, indexField, status))
+                .map(logJson -> logType.cast(readLog(logJson)));
+    }
+
+    //Pages are read straight from Redis without recording an etag, so inside a unit of work the key's queued writes are
+    //flushed first
+    private Stream<String> streamLogJson(String key) {
+        log.info("Streaming logs for key {}", key);
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null && unitOfWork.hasPendingWrites(key)) flush();
+        var asyncCommands = connection().async();
+        var logCursor = new LogCursor(increment -> {
+            var startIdx = (long) increment * LOG_INCREMENT;
+            return asyncCommands.lrange(key, startIdx, startIdx + LOG_INCREMENT - 1).toCompletableFuture();
+        });
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(logCursor, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
     @Override
     public DeploymentLog fetchLatestDeploymentLog(String key) {
-        var log = fetchLatestLog(key);
-        if (log == null) return null;
-        if (log instanceof DeploymentLog) {
-            return (DeploymentLog) log;
-        } else {
-            var idx = 0;
-            var logIncrement = 0;
-            var deploymentLogList = fetchLogList(key, logIncrement);
-            while (idx < deploymentLogList.size()) {
-                if (deploymentLogList.get(idx) instanceof DeploymentLog) {
-                    return (DeploymentLog) deploymentLogList.get(idx);
-                }
-                idx++;
-                if (idx == deploymentLogList.size()) {
-                    logIncrement++;
-                    deploymentLogList = fetchLogList(key, logIncrement);
-                    idx = 0;
-                }
-            }
-            return null;
-        }
+        return (DeploymentLog) fetchIndexedLog(key, DeploymentLog.class);
     }
 
     @Override
     public RemediationLog fetchLatestRemediationLog(String key) {
-        var log = fetchLatestLog(key);
-        if (log instanceof RemediationLog) {
-            return (RemediationLog) log;
-        } else {
-            var idx = 0;
-            var logIncrement = 0;
-            var logList = fetchLogList(key, logIncrement);
-            while (idx < logList.size()) {
-                if (logList.get(idx) instanceof RemediationLog) {
-                    return (RemediationLog) logList.get(idx);
-                }
-                idx++;
-                if (idx == logList.size()) {
-                    logIncrement++;
-                    logList = fetchLogList(key, logIncrement);
-                    idx = 0;
-                }
-            }
-            return null;
-        }
+        return (RemediationLog) fetchIndexedLog(key, RemediationLog.class);
     }
 
     @Override
@@ -236,30 +382,192 @@ public class RedisDbClient implements DbClient {
         return (StepMetadata) fetch(key, ObjectType.METADATA, -1);
     }
 
+    //The batch reads below are pipelined on the connection and do not record etags for any of the keys. They are meant for
+    //progress checks across many steps, not for reads that are followed by a write. They always go to Redis, so inside a
+    //unit of work the queued writes are flushed first.
+    @Override
+    public List<DeploymentLog> fetchLatestDeploymentLogs(List<String> keys) {
+        log.info("Fetching latest deployment logs for keys {}", keys);
+        flush();
+        var asyncCommands = connection().async();
+        var futures = new ArrayList<CompletableFuture<List<Object>>>();
+        for (var key : keys) {
+            futures.add(FETCH_INDEXED_LOG_SCRIPT.eval(asyncCommands, ScriptOutputType.MULTI, new String[]{key, makeLogIndexKey(key)}, DEPLOYMENT_LOG_INDEX_FIELD));
+        }
+        try {
+            var deploymentLogs = new ArrayList<DeploymentLog>();
+            for (var idx = 0; idx < keys.size(); idx++) {
+                var result = resolveIndexedLog(keys.get(idx), (String) futures.get(idx).join().get(1), DeploymentLog.class);
+                deploymentLogs.add(result == null ? null : (DeploymentLog) decodeLog(result));
+            }
+            return deploymentLogs;
+        } catch (JsonProcessingException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    @Override
+    public List<StepMetadata> fetchMultipleMetadata(List<String> keys) {
+        log.info("Fetching metadata for keys {}", keys);
+        flush();
+        var metadataList = new ArrayList<StepMetadata>();
+        if (keys.isEmpty()) return metadataList;
+        try {
+            var results = nearCache != null ? nearCache.getAll(keys) : readAll(keys);
+            for (var result : results) {
+                metadataList.add(result == null ? null : valueCodec.decode(result, StepMetadata.class));
+            }
+            return metadataList;
+        } catch (JsonProcessingException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
     @Override
     public ClientRequestPacket fetchHeadInClientRequestList(String key) throws AtlasBadKeyError {
-        if (redisCommands.exists(key) == 0) {
+        if (commands().exists(key) == 0) {
             return null;
         }
         return (ClientRequestPacket) fetchTransactionless(key, ObjectType.CLIENT_REQUEST);
     }
 
+    private Log fetchIndexedLog(String key, Class<? extends Log> logType) {
+        log.info("Fetching indexed log for key {}", key);
+        var indexField = getLogIndexField(logType);
+        var unitOfWork = currentUnitOfWork.get();
+        try {
+            if (unitOfWork != null) {
+                var cachedList = unitOfWork.getList(key);
+                for (var logJson : cachedList.head) {
+                    if (isLogOfType(logJson, indexField, null)) return decodeLog(logJson);
+                }
+                var cachedLogJson = cachedList.isFullyKnown() ? "" : cachedList.indexedLogs.get(indexField);
+                if (cachedLogJson != null) {
+                    return cachedLogJson.isEmpty() ? null : decodeLog(cachedLogJson);
+                }
+                //Redis can only answer for the list once the queued writes are in
+                if (unitOfWork.hasPendingWrites(key)) flush();
+            }
+            List<Object> result = FETCH_INDEXED_LOG_SCRIPT.eval(commands(), ScriptOutputType.MULTI, new String[]{key, makeLogIndexKey(key)}, indexField);
+            var etag = (String) result.get(0);
+            var logJson = resolveIndexedLog(key, (String) result.get(1), logType);
+            if (unitOfWork != null) {
+                unitOfWork.getList(key).addIndexedLog(etag, indexField, logJson);
+            } else {
+                recordFetchedEtag(key, etag);
+            }
+            return logJson == null ? null : decodeLog(logJson);
+        } catch (JsonProcessingException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    //Returns the JSON of the latest log of the given type, or null if there is none
+    private String resolveIndexedLog(String key, String indexedResult, Class<? extends Log> logType) {
+        if (indexedResult != null) {
+            //An empty result means the index knows that no log of this type exists
+            if (indexedResult.isEmpty()) return null;
+            if (isLogOfType(indexedResult, getLogIndexField(logType), null)) {
+                return indexedResult;
+            }
+        }
+        return scanForLog(key, getLogIndexField(logType));
+    }
+
+    //Only used when the index is missing or stale. The position that is found is written back so the next lookup is a single read.
+    //The etag recorded by the indexed lookup is left as is, so a later store still fails if the list changes during the scan.
+    private String scanForLog(String key, String indexField) {
+        log.info("Log index for key {} is missing or stale, scanning log list", key);
+        var length = commands().llen(key);
+        if (length == 0) return null;
+        var logIncrement = 0;
+        var logList = fetchLogPage(key, logIncrement);
+        while (logList.size() > 0) {
+            for (var idx = 0; idx < logList.size(); idx++) {
+                if (isLogOfType(logList.get(idx), indexField, null)) {
+                    repairLogIndex(key, indexField, toIndexPosition(length, (long) logIncrement * LOG_INCREMENT + idx), length);
+                    return logList.get(idx);
+                }
+            }
+            logIncrement++;
+            logList = fetchLogPage(key, logIncrement);
+        }
+        repairLogIndex(key, indexField, NO_LOG_POSITION, length);
+        return null;
+    }
+
+    //Reads a page of the log list without recording an etag
+    private List<String> fetchLogPage(String key, int increment) {
+        var startIdx = increment * LOG_INCREMENT;
+        return commands().lrange(key, startIdx, startIdx + LOG_INCREMENT - 1);
+    }
+
+    private boolean isLogOfType(String logJson, String indexField, String status) {
+        try {
+            return LogHeader.matches(valueCodec.createParser(logJson), indexField, status);
+        } catch (IOException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    private Log decodeLog(String logJson) throws JsonProcessingException {
+        var decodedLog = valueCodec.decode(logJson, Log.class);
+        attachLoader(decodedLog, this::fetchTestLog);
+        return decodedLog;
+    }
+
+    //Test logs are read without recording an etag, so loading one never changes what a later store is checked against
+    private String fetchTestLog(String testLogKey) {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null && unitOfWork.hasPendingWrites(testLogKey)) {
+            return unitOfWork.getValue(testLogKey).value;
+        }
+        return commands().get(testLogKey);
+    }
+
+    private Log readLog(String logJson) {
+        try {
+            return decodeLog(logJson);
+        } catch (JsonProcessingException e) {
+            log.error("Jackson object mapping/serialization failed.", e);
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    private List<Log> readLogList(List<String> result) throws JsonProcessingException {
+        var deploymentLogList = new ArrayList<Log>();
+        for (var string : result) {
+            var deploymentLog = decodeLog(string);
+            deploymentLogList.add(deploymentLog);
+        }
+        return deploymentLogList;
+    }
+
+    private void repairLogIndex(String key, String indexField, long position, long length) {
+        REPAIR_LOG_INDEX_SCRIPT.eval(commands(), ScriptOutputType.INTEGER, new String[]{key, makeLogIndexKey(key)}, indexField, String.valueOf(position), String.valueOf(length));
+    }
+
     private Object fetchTransactionless(String key, ObjectType objectType) {
         try {
             log.info("Fetching schema for key without transaction {}", key);
-            var exists = redisCommands.exists(key);
+            if (objectType == ObjectType.CLUSTER_SCHEMA) {
+                var result = readValue(key, true);
+                if (result == null) return null;
+                return valueCodec.decode(result, ClusterSchema.class);
+            }
+            var exists = commands().exists(key);
             //If the key doesn't exist, return null (1 is exists, 0 is does not exist)
             if (exists == 0) {
                 return null;
             }
-            if (objectType == ObjectType.CLUSTER_SCHEMA) {
-                var result = redisCommands.get(key);
-                return objectMapper.readValue(result, ClusterSchema.class);
-            }
-            else if (objectType == ObjectType.CLIENT_REQUEST) {
-                var result = redisCommands.lindex(key, 0);
+            if (objectType == ObjectType.CLIENT_REQUEST) {
+                var result = commands().lindex(key, 0);
                 if (result == null) return null;
-                return objectMapper.readValue(result, ClientRequestPacket.class);
+                return valueCodec.decode(result, ClientRequestPacket.class);
             }
         } catch (JsonProcessingException e) {
             log.error("Jackson object mapping/serialization failed.", e);
@@ -271,52 +579,49 @@ public class RedisDbClient implements DbClient {
     private Object fetch(String key, ObjectType objectType, int increment) {
         try {
             log.info("Fetching schema for key {}", key);
-            //This will ensure that the list of watched keys is kept to one, so no leakage will happen.
-            redisCommands.unwatch();
-            redisCommands.watch(key);
-            currentWatchedKey = key;
-            var exists = redisCommands.exists(key);
-            //If the key doesn't exist, return null (1 is exists, 0 is does not exist)
-            if (exists == 0) {
-                return null;
-            } else if (objectType == ObjectType.TEAM_SCHEMA) {
-                var result = redisCommands.get(key);
-                return objectMapper.readValue(result, TeamSchema.class);
+            //If the key doesn't exist, null is returned. The etag is recorded either way, so that a store can also detect
+            //the key being created in the meantime.
+            if (objectType == ObjectType.TEAM_SCHEMA) {
+                var result = fetchValue(key, true);
+                if (result == null) return null;
+                return valueCodec.decode(result, TeamSchema.class);
             } else if (objectType == ObjectType.STRING_LIST) {
-                var result = redisCommands.get(key);
-                return objectMapper.readValue(result, objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+                var result = fetchValue(key, false);
+                if (result == null) return null;
+                return valueCodec.decode(result, objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
             } else if (objectType == ObjectType.LOG_LIST) {
                 //TODO: As logs get longer and longer, we cant be fetching a list of 100. We need to find a better way to get chunks of logs as needed.
                 var startIdx = increment * LOG_INCREMENT;
-                var result = redisCommands.lrange(key, startIdx, startIdx + LOG_INCREMENT - 1);
-                var deploymentLogList = new ArrayList<Log>();
-                for (var string : result) {
-                    var deploymentLog = objectMapper.readValue(string, Log.class);
-                    deploymentLogList.add(deploymentLog);
-                }
-                return deploymentLogList;
+                var result = fetchListRange(key, startIdx, startIdx + LOG_INCREMENT - 1);
+                if (result == null) return null;
+                return readLogList(result);
             } else if (objectType == ObjectType.PIPELINE_INFO_LIST) {
                 //TODO: As logs get longer and longer, we cant be fetching a list of 100. We need to find a better way to get chunks of logs as needed.
                 var startIdx = increment * LOG_INCREMENT;
-                var result = redisCommands.lrange(key, startIdx, startIdx + LOG_INCREMENT - 1);
+                var result = fetchListRange(key, startIdx, startIdx + LOG_INCREMENT - 1);
+                if (result == null) return null;
                 var pipelineInfoList = new ArrayList<PipelineInfo>();
                 for (var string : result) {
-                    var pipelineInfo = objectMapper.readValue(string, PipelineInfo.class);
+                    var pipelineInfo = valueCodec.decode(string, PipelineInfo.class);
                     pipelineInfoList.add(pipelineInfo);
                 }
                 return pipelineInfoList;
             } else if (objectType == ObjectType.SINGLE_LOG) {
-                var result = redisCommands.lindex(key, 0);
-                return objectMapper.readValue(result, Log.class);
+                var result = fetchListRange(key, 0, 0);
+                if (result == null) return null;
+                return decodeLog(result.get(0));
             } else if (objectType == ObjectType.PIPELINE_INFO) {
-                var result = redisCommands.lindex(key, 0);
-                return objectMapper.readValue(result, PipelineInfo.class);
+                var result = fetchListRange(key, 0, 0);
+                if (result == null) return null;
+                return valueCodec.decode(result.get(0), PipelineInfo.class);
             } else if (objectType == ObjectType.CLUSTER_SCHEMA) {
-                var result = redisCommands.get(key);
-                return objectMapper.readValue(result, ClusterSchema.class);
+                var result = fetchValue(key, true);
+                if (result == null) return null;
+                return valueCodec.decode(result, ClusterSchema.class);
             } else if (objectType == ObjectType.METADATA) {
-                var result = redisCommands.get(key);
-                return objectMapper.readValue(result, StepMetadata.class);
+                var result = fetchValue(key, true);
+                if (result == null) return null;
+                return valueCodec.decode(result, StepMetadata.class);
             }
         } catch (JsonProcessingException e) {
             log.error("Jackson object mapping/serialization failed.", e);
@@ -324,4 +629,111 @@ public class RedisDbClient implements DbClient {
         }
         throw new AtlasNonRetryableError("None of the ObjectTypes were matched");
     }
+
+    //Documents that rarely change are read through the near cache. The etag is worked out from the value either way, so a
+    //store still fails if the cached value turns out to be stale.
+    private String fetchValue(String key, boolean nearCached) {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            var cachedValue = unitOfWork.getValue(key);
+            if (!cachedValue.known) {
+                var result = readValue(key, nearCached);
+                cachedValue.etag = valueEtag(result);
+                cachedValue.known = true;
+                cachedValue.value = result;
+            }
+            return cachedValue.value;
+        }
+        var result = readValue(key, nearCached);
+        recordFetchedEtag(key, valueEtag(result));
+        return result;
+    }
+
+    private String readValue(String key, boolean nearCached) {
+        return nearCached && nearCache != null ? nearCache.get(key) : commands().get(key);
+    }
+
+    private List<String> readAll(List<String> keys) {
+        var values = new ArrayList<String>();
+        for (var keyValue : commands().mget(keys.toArray(new String[0]))) {
+            values.add(keyValue.getValueOrElse(null));
+        }
+        return values;
+    }
+
+    private void invalidateNearCache(String key) {
+        if (nearCache != null) nearCache.invalidate(key);
+    }
+
+    //Returns null if the list doesn't exist. The etag is read in the same round trip as the range.
+    private List<String> fetchListRange(String key, long startIdx, long endIdx) {
+        var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            var cachedList = unitOfWork.getList(key);
+            var cachedRange = cachedList.getRange(startIdx, endIdx);
+            if (cachedRange != null) {
+                return cachedList.length != null && cachedList.length == 0 ? null : cachedRange;
+            }
+            //Redis can only answer for the list once the queued writes are in
+            if (unitOfWork.hasPendingWrites(key)) flush();
+        }
+        List<Object> result = FETCH_LIST_RANGE_SCRIPT.eval(commands(), ScriptOutputType.MULTI, new String[]{key}, String.valueOf(startIdx), String.valueOf(endIdx));
+        var etag = (String) result.get(0);
+        var values = new ArrayList<String>();
+        for (var idx = 1; idx < result.size(); idx++) {
+            values.add((String) result.get(idx));
+        }
+        if (unitOfWork != null) {
+            unitOfWork.getList(key).addRange(etag, startIdx, values);
+        } else {
+            recordFetchedEtag(key, etag);
+        }
+        if (etag.equals(NO_ETAG)) return null;
+        return values;
+    }
+
+    //Only used outside of a unit of work
+    private void recordFetchedEtag(String key, String etag) {
+        lastFetchedEtag.set(Map.entry(key, etag));
+    }
+
+    //Returns null if the store should be unconditional. Only used outside of a unit of work.
+    private String takeExpectedEtag(String key) {
+        var fetchedEtag = lastFetchedEtag.get();
+        //The etag is used up by the write, the same way EXEC used to clear the watch
+        lastFetchedEtag.remove();
+        return fetchedEtag != null && fetchedEtag.getKey().equals(key) ? fetchedEtag.getValue() : null;
+    }
+
+    @Override
+    public void addToSortedSet(String key, double score, String member) {
+        log.info("Adding member to sorted set {}", key);
+        commands().zadd(key, ZAddArgs.Builder.nx(), score, ValueCodec.encodeText(member));
+    }
+
+    @Override
+    public String fetchFirstInSortedSet(String key) {
+        var members = commands().zrange(key, 0, 0);
+        return members.isEmpty() ? null : ValueCodec.decodeText(members.get(0));
+    }
+
+    @Override
+    public List<String> fetchSortedSet(String key) {
+        return commands().zrange(key, 0, -1).stream().map(ValueCodec::decodeText).collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean removeFromSortedSet(String key, String member) {
+        log.info("Removing member from sorted set {}", key);
+        return commands().zrem(key, ValueCodec.encodeText(member)) > 0;
+    }
+
+    private StatefulRedisConnection<String, String> connection() {
+        var unitOfWork = currentUnitOfWork.get();
+        return unitOfWork != null ? unitOfWork.connection : redisConnection;
+    }
+
+    private RedisCommands<String, String> commands() {
+        return connection().sync();
+    }
 }
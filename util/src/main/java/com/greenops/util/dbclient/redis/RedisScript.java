@@ -0,0 +1,45 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.sha1Hex;
+
+//A Lua script that is invoked by its SHA so only the arguments travel over the wire. Redis forgets cached scripts on
+//restart or SCRIPT FLUSH, in which case the full script is sent once with EVAL, which also caches it again.
+final class RedisScript {
+
+    private final String script;
+    private final String sha;
+
+    RedisScript(String script) {
+        this.script = script;
+        this.sha = sha1Hex(script);
+    }
+
+    <T> T eval(RedisCommands<String, String> redisCommands, ScriptOutputType outputType, String[] keys, String... args) {
+        try {
+            return redisCommands.evalsha(sha, outputType, keys, args);
+        } catch (RedisNoScriptException e) {
+            return redisCommands.eval(script, outputType, keys, args);
+        }
+    }
+
+    <T> CompletableFuture<T> eval(RedisAsyncCommands<String, String> redisCommands, ScriptOutputType outputType, String[] keys, String... args) {
+        return redisCommands.<T>evalsha(sha, outputType, keys, args).toCompletableFuture()
+                .handle((result, throwable) -> {
+                    if (throwable == null) return CompletableFuture.completedFuture(result);
+                    var cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof RedisNoScriptException) {
+                        return redisCommands.<T>eval(script, outputType, keys, args).toCompletableFuture();
+                    }
+                    return CompletableFuture.<T>failedFuture(cause);
+                })
+                .thenCompose(future -> future);
+    }
+}
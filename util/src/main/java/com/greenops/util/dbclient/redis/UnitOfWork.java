@@ -0,0 +1,185 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.*;
+
+//Everything a unit of work knows about the keys it touched: the connection it runs on, what it has read, and the writes
+//it has not flushed yet. Data is cached as the stored values, so every fetch still returns a freshly deserialized object
+//and callers mutating a fetched object never change the cache.
+final class UnitOfWork {
+
+    final StatefulRedisConnection<String, String> connection;
+    private final Map<String, CachedValue> values = new HashMap<>();
+    private final Map<String, CachedList> lists = new HashMap<>();
+    //Keys are flushed in the order they were first written
+    private final Set<String> dirtyKeys = new LinkedHashSet<>();
+    //Every key written during the unit of work, flushed or not
+    private final Set<String> writtenKeys = new HashSet<>();
+
+    UnitOfWork(StatefulRedisConnection<String, String> connection) {
+        this.connection = connection;
+    }
+
+    CachedValue getValue(String key) {
+        return values.computeIfAbsent(key, k -> new CachedValue());
+    }
+
+    CachedList getList(String key) {
+        return lists.computeIfAbsent(key, k -> new CachedList());
+    }
+
+    void storeValue(String key, String value) {
+        var cachedValue = getValue(key);
+        cachedValue.known = true;
+        cachedValue.value = value;
+        dirtyKeys.add(key);
+        writtenKeys.add(key);
+    }
+
+    void storeInList(String key, String operation, String value, String indexField) {
+        getList(key).apply(new ListOperation(operation, value, indexField));
+        dirtyKeys.add(key);
+        writtenKeys.add(key);
+    }
+
+    //Keys that were written keep their cache, which holds what was written and the etag it was written under
+    void forgetUnwrittenReads() {
+        values.keySet().retainAll(writtenKeys);
+        lists.keySet().retainAll(writtenKeys);
+    }
+
+    boolean hasPendingWrites() {
+        return !dirtyKeys.isEmpty();
+    }
+
+    boolean hasPendingWrites(String key) {
+        return dirtyKeys.contains(key);
+    }
+
+    Set<String> getDirtyKeys() {
+        return dirtyKeys;
+    }
+
+    boolean isList(String key) {
+        return lists.containsKey(key);
+    }
+
+    //Called once the pending writes are in Redis, with the etag each dirty key has now
+    void markFlushed(List<String> etags) {
+        var idx = 0;
+        for (var key : dirtyKeys) {
+            var etag = etags.get(idx++);
+            if (lists.containsKey(key)) {
+                var cachedList = lists.get(key);
+                cachedList.pendingOperations.clear();
+                cachedList.setEtag(etag);
+            } else {
+                values.get(key).etag = etag;
+            }
+        }
+        dirtyKeys.clear();
+    }
+
+    static final class CachedValue {
+        //Null until the key is read or written, which keeps the first write unconditional
+        String etag;
+        boolean known;
+        String value;
+    }
+
+    static final class CachedList {
+        String etag;
+        //Known entries counted from the head. Only the head of a list ever changes, so this stays a valid prefix while
+        //writes are applied locally.
+        final List<String> head = new ArrayList<>();
+        Long length;
+        //Latest stored log per log index field, as resolved by Redis. An empty string means no log of that type exists.
+        final Map<String, String> indexedLogs = new HashMap<>();
+        final List<ListOperation> pendingOperations = new ArrayList<>();
+
+        boolean isFullyKnown() {
+            return length != null && head.size() >= length;
+        }
+
+        //Returns null if the range can't be answered without going to Redis
+        List<String> getRange(long startIdx, long endIdx) {
+            if (endIdx >= head.size() && !isFullyKnown()) return null;
+            var from = (int) Math.min(startIdx, head.size());
+            var to = (int) Math.min(endIdx + 1, head.size());
+            return new ArrayList<>(head.subList(from, to));
+        }
+
+        //Takes in a range read from Redis. If the list changed since it was last seen, what was cached is dropped.
+        void addRange(String etag, long startIdx, List<String> range) {
+            if (!etag.equals(this.etag)) {
+                head.clear();
+                indexedLogs.clear();
+            }
+            setEtag(etag);
+            if (startIdx == head.size()) {
+                head.addAll(range);
+            } else if (startIdx == 0) {
+                head.clear();
+                head.addAll(range);
+            }
+        }
+
+        void addIndexedLog(String etag, String indexField, String logJson) {
+            if (!etag.equals(this.etag)) {
+                head.clear();
+                indexedLogs.clear();
+            }
+            setEtag(etag);
+            indexedLogs.put(indexField, logJson == null ? "" : logJson);
+        }
+
+        private void setEtag(String etag) {
+            this.etag = etag;
+            length = etag.equals(NO_ETAG) ? 0L : Long.parseLong(etag.substring(0, etag.indexOf(':')));
+        }
+
+        //Applies the write to the cached prefix and queues it, folding it into the previous queued write where possible
+        private void apply(ListOperation listOperation) {
+            var previous = pendingOperations.isEmpty() ? null : pendingOperations.get(pendingOperations.size() - 1);
+            if (previous != null && listOperation.operation.equals(UPDATE_OPERATION) && !previous.operation.equals(POP_OPERATION)
+                    && previous.indexField.equals(listOperation.indexField)) {
+                previous.value = listOperation.value;
+            } else if (previous != null && listOperation.operation.equals(POP_OPERATION) && previous.operation.equals(INSERT_OPERATION)) {
+                pendingOperations.remove(pendingOperations.size() - 1);
+            } else {
+                pendingOperations.add(listOperation);
+            }
+            if (listOperation.operation.equals(INSERT_OPERATION)) {
+                head.add(0, listOperation.value);
+                if (length != null) length++;
+            } else if (listOperation.operation.equals(UPDATE_OPERATION)) {
+                if (!head.isEmpty()) head.set(0, listOperation.value);
+            } else {
+                if (!head.isEmpty()) head.remove(0);
+                if (length != null && length > 0) length--;
+            }
+            indexedLogs.clear();
+        }
+    }
+
+    static final class ListOperation {
+        final String operation;
+        String value;
+        final String indexField;
+
+        ListOperation(String operation, String value, String indexField) {
+            this.operation = operation;
+            this.value = value;
+            this.indexField = indexField;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.greenops.util.dbclient.redis;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//Converts between objects and the values stored in Redis. Stored values are handled as strings holding one char per
+//byte, so binary values go through the String based commands and Lua scripts unchanged.
+//JSON is stored as is, which keeps it readable by the Go services. Binary values start with a format byte that can never
+//start a JSON document, so every value is decoded according to how it was written rather than the current setting.
+final class ValueCodec {
+
+    static final RedisCodec<String, String> CONNECTION_CODEC = RedisCodec.of(StringCodec.UTF8, new StringCodec(StandardCharsets.ISO_8859_1));
+    private static final int SMILE_FORMAT = 0x01;
+    private static final int COMPRESSED_SMILE_FORMAT = 0x02;
+    //Encoded values at least this large are compressed, which mostly catches logs carrying test output
+    private static final int COMPRESSION_THRESHOLD = 4096;
+
+    private final ObjectMapper objectMapper;
+    private final SmileFactory smileFactory = new SmileFactory();
+    private final ValueFormat valueFormat;
+
+    ValueCodec(ObjectMapper objectMapper, ValueFormat valueFormat) {
+        this.objectMapper = objectMapper;
+        this.valueFormat = valueFormat;
+    }
+
+    String encode(Object value) throws JsonProcessingException {
+        if (valueFormat == ValueFormat.JSON) {
+            return toByteString(objectMapper.writeValueAsBytes(value));
+        }
+        try {
+            var smileBytes = new ByteArrayOutputStream();
+            try (var generator = smileFactory.createGenerator(smileBytes)) {
+                objectMapper.writeValue(generator, value);
+            }
+            var encoded = new ByteArrayOutputStream(smileBytes.size() + 1);
+            if (smileBytes.size() < COMPRESSION_THRESHOLD) {
+                encoded.write(SMILE_FORMAT);
+                smileBytes.writeTo(encoded);
+            } else {
+                encoded.write(COMPRESSED_SMILE_FORMAT);
+                try (var gzipOutputStream = new GZIPOutputStream(encoded)) {
+                    smileBytes.writeTo(gzipOutputStream);
+                }
+            }
+            return toByteString(encoded.toByteArray());
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw JsonMappingException.fromUnexpectedIOE(e);
+        }
+    }
+
+    <T> T decode(String storedValue, Class<T> valueType) throws JsonProcessingException {
+        return decode(storedValue, objectMapper.constructType(valueType));
+    }
+
+    <T> T decode(String storedValue, JavaType valueType) throws JsonProcessingException {
+        try (var parser = createParser(storedValue)) {
+            return objectMapper.readValue(parser, valueType);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw JsonMappingException.fromUnexpectedIOE(e);
+        }
+    }
+
+    //Lets callers read part of a value without binding all of it
+    JsonParser createParser(String storedValue) throws IOException {
+        var bytes = storedValue.getBytes(StandardCharsets.ISO_8859_1);
+        if (bytes.length == 0) return objectMapper.getFactory().createParser(bytes);
+        switch (bytes[0]) {
+            case SMILE_FORMAT:
+                return smileFactory.createParser(bytes, 1, bytes.length - 1);
+            case COMPRESSED_SMILE_FORMAT:
+                return smileFactory.createParser(new GZIPInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1)));
+            default:
+                return objectMapper.getFactory().createParser(bytes);
+        }
+    }
+
+    //Plain text, like sorted set members, is stored as UTF-8 so that the Go services read the same string
+    static String encodeText(String text) {
+        return toByteString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeText(String storedValue) {
+        return new String(storedValue.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    private static String toByteString(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,9 @@
+package com.greenops.util.dbclient.redis;
+
+//The format values are written in. Values in either format can always be read, so the setting can be changed without
+//migrating existing keys. SMILE should only be turned on once nothing but the Java services reads the keys, since the Go
+//services only understand JSON.
+public enum ValueFormat {
+    JSON,
+    SMILE
+}
@@ -3,24 +3,38 @@ package com.greenops.util.httpclient;
 import lombok.extern.slf4j.Slf4j;
 import nl.altindag.ssl.SSLFactory;
 import nl.altindag.ssl.util.PemUtils;
-import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.stereotype.Component;
 
 import javax.net.ssl.SSLContext;
 import java.io.File;
 import java.nio.file.Paths;
+import java.time.Duration;
 
 @Slf4j
 @Component
 public class Builder {
     private static final String KEYSTORE_CERT_ALIAS = "reposerver.atlas.svc.cluster.local";
+    private static final int DEFAULT_MAX_CONNECTIONS = 32;
+    private static final Duration DEFAULT_CONNECTION_TTL = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    //Connections that have been idle for this long are closed rather than handed out again
+    private static final Duration MAX_IDLE_TIME = Duration.ofMinutes(1);
     private SSLContext sslCon;
-    private HttpClientBuilder builder;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS;
+    private Duration connectionTtl = DEFAULT_CONNECTION_TTL;
+    private Duration responseTimeout;
+    private boolean http2 = false;
 
     private Builder() {
-        this.builder = HttpClients.custom();
     }
 
     public static Builder create() {
@@ -48,16 +62,62 @@ public class Builder {
         return this;
     }
 
-    public HttpClient build() {
+    public Builder withConnectionPool(int maxConnections, int maxConnectionsPerRoute) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    //Connections are not reused once they are this old, so the pool follows the server when it is rescheduled
+    public Builder withConnectionTtl(Duration connectionTtl) {
+        this.connectionTtl = connectionTtl;
+        return this;
+    }
+
+    public Builder withResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+        return this;
+    }
+
+    //HTTP/2 is negotiated over TLS with ALPN, so requests share a single multiplexed connection when the server supports
+    //it. Plain HTTP endpoints and servers without HTTP/2 keep using pooled HTTP/1.1 connections.
+    public Builder withHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    //The client is started before it is returned. Every pooled connection uses the same SSL context, so TLS sessions
+    //are resumed instead of negotiated from scratch.
+    public CloseableHttpAsyncClient build() {
+        var tlsStrategyBuilder = ClientTlsStrategyBuilder.create();
         if (this.sslCon == null) {
             var sslFactory = SSLFactory.builder()
                     .withUnsafeTrustMaterial()
                     .withUnsafeHostnameVerifier()
                     .build();
-            this.builder.setSSLHostnameVerifier(sslFactory.getHostnameVerifier());
-            return this.builder.setSSLContext(sslFactory.getSslContext()).build();
+            tlsStrategyBuilder.setSslContext(sslFactory.getSslContext()).setHostnameVerifier(sslFactory.getHostnameVerifier());
+        } else {
+            tlsStrategyBuilder.setSslContext(this.sslCon);
         }
-        return this.builder.setSSLContext(this.sslCon).build();
+        var connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setTlsStrategy(tlsStrategyBuilder.build())
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setConnectionTimeToLive(TimeValue.ofMilliseconds(connectionTtl.toMillis()))
+                .build();
+        var requestConfig = RequestConfig.custom().setConnectTimeout(Timeout.ofMilliseconds(DEFAULT_CONNECT_TIMEOUT.toMillis()));
+        if (responseTimeout != null) {
+            requestConfig.setResponseTimeout(Timeout.ofMilliseconds(responseTimeout.toMillis()));
+        }
+        var httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig.build())
+                .setVersionPolicy(http2 ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(MAX_IDLE_TIME.toMillis()))
+                .build();
+        httpClient.start();
+        return httpClient;
     }
 
 }
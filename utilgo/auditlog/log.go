@@ -34,6 +34,8 @@ type DeploymentLog struct {
 	GitCommitVersion            string    `json:"gitCommitVersion"`
 	BrokenTest                  string    `json:"brokenTest"`
 	BrokenTestLog               string    `json:"brokenTestLog"`
+	//Set when the Java services stored the test log under its own key, gzipped. The db client loads it into BrokenTestLog.
+	BrokenTestLogKey            string    `json:"brokenTestLogKey"`
 }
 
 func InitBlankDeploymentLog(pipelineUniqueVersionNumber string, status LogStatus, deploymentComplete bool, argoRevisionHash string, gitCommitVersion string) Log {
@@ -48,6 +50,7 @@ func InitBlankDeploymentLog(pipelineUniqueVersionNumber string, status LogStatus
 	d.GitCommitVersion = gitCommitVersion
 	d.BrokenTest = ""
 	d.BrokenTestLog = ""
+	d.BrokenTestLogKey = ""
 	return &d
 }
 
@@ -138,6 +141,7 @@ func Marshal(log Log) *ordered.OrderedMap {
 		mapObj.Set("gitCommitVersion", depLog.GitCommitVersion)
 		mapObj.Set("brokenTest", depLog.BrokenTest)
 		mapObj.Set("brokenTestLog", depLog.BrokenTestLog)
+		mapObj.Set("brokenTestLogKey", depLog.BrokenTestLogKey)
 	}
 
 	return mapObj
@@ -1,7 +1,9 @@
 package auditlog
 
 type PipelineInfo struct {
-	PipelineUvn string   `json:"pipelineUniqueVersionNumber"`
-	Errors      []string `json:"errors"`
-	StepList    []string `json:"stepList"`
+	PipelineUvn  string   `json:"pipelineUniqueVersionNumber"`
+	Errors       []string `json:"errors"`
+	StepList     []string `json:"stepList"`
+	//Set when the run never started because a newer trigger for the pipeline was run in its place
+	SupersededBy string   `json:"supersededBy,omitempty"`
 }
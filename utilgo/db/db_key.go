@@ -30,6 +30,10 @@ func MakeDbPipelineInfoKey(orgName string, teamName string, pipelineName string)
 	return strings.Join([]string{orgName, teamName, pipelineName, "meta"}, "-")
 }
 
+func MakeDbPipelineRunQueueKey(orgName string, teamName string, pipelineName string) string {
+	return strings.Join([]string{orgName, teamName, pipelineName, "queue"}, "-")
+}
+
 func MakeDbListOfTeamsKey(orgName string) string {
 	return orgName + "-teams"
 }
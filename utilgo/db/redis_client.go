@@ -1,9 +1,12 @@
 package db
 
 import (
+	"bytes"
+	"compress/gzip"
 	"encoding/json"
 	"errors"
 	"fmt"
+	"io"
 	"log"
 	"time"
 
@@ -58,6 +61,9 @@ const (
 	multi   RedisCommand = "MULTI"
 	exec    RedisCommand = "EXEC"
 	keys    RedisCommand = "KEYS"
+	zadd    RedisCommand = "ZADD"
+	zrange  RedisCommand = "ZRANGE"
+	zrem    RedisCommand = "ZREM"
 )
 
 const (
@@ -121,6 +127,10 @@ type DbClient interface {
 	FetchLogList(key string, increment int) []auditlog.Log
 	FetchLatestLog(key string) auditlog.Log
 	FetchStringList(key string) []string
+	AddToSortedSet(key string, score float64, member string)
+	FetchFirstInSortedSet(key string) string
+	FetchSortedSet(key string) []string
+	RemoveFromSortedSet(key string, member string) bool
 	DeleteByPrefix(prefix string)
 }
 
@@ -259,6 +269,43 @@ func (r *RedisClientImpl) FetchStringList(key string) []string {
 	return ret.([]string)
 }
 
+// FetchFirstInSortedSet returns the member with the lowest score, or an empty string if the set is empty
+func (r *RedisClientImpl) FetchFirstInSortedSet(key string) string {
+	members, err := redis.Strings(r.client.Do(string(zrange), key, 0, 0))
+	if err != nil {
+		panic(err)
+	}
+	if len(members) == 0 {
+		return ""
+	}
+	return members[0]
+}
+
+// FetchSortedSet returns every member, lowest score first
+func (r *RedisClientImpl) FetchSortedSet(key string) []string {
+	members, err := redis.Strings(r.client.Do(string(zrange), key, 0, -1))
+	if err != nil {
+		panic(err)
+	}
+	return members
+}
+
+// AddToSortedSet adds the member with the given score, unless it is already in the set
+func (r *RedisClientImpl) AddToSortedSet(key string, score float64, member string) {
+	log.Printf("Adding member to sorted set %s", key)
+	_ = redisWrapperFunc(r.client.Do(string(zadd), key, "NX", score, member))
+}
+
+// RemoveFromSortedSet returns whether the member was in the set, so that only one of several callers removing it acts on it
+func (r *RedisClientImpl) RemoveFromSortedSet(key string, member string) bool {
+	log.Printf("Removing member from sorted set %s", key)
+	removed, err := redis.Int(r.client.Do(string(zrem), key, member))
+	if err != nil {
+		panic(err)
+	}
+	return removed > 0
+}
+
 func (r *RedisClientImpl) FetchLogList(key string, increment int) []auditlog.Log {
 	logList := r.fetch(key, logListObj, increment)
 	if logList == nil {
@@ -399,7 +446,7 @@ func (r *RedisClientImpl) fetch(key string, objectType ObjectType, increment int
 		reply = redisWrapperFunc(redis.Strings(r.client.Do(string(lrange), key, startIdx, startIdx+LogIncrement-1)))
 		logArray := make([]auditlog.Log, 0)
 		for _, val := range reply.([]string) {
-			logArray = append(logArray, serializer.Deserialize(val, serializerutil.LogType).(auditlog.Log))
+			logArray = append(logArray, r.loadBrokenTestLog(serializer.Deserialize(val, serializerutil.LogType).(auditlog.Log)))
 		}
 		return logArray
 	} else if objectType == pipelineInfoList {
@@ -412,7 +459,7 @@ func (r *RedisClientImpl) fetch(key string, objectType ObjectType, increment int
 		return pipelineInfoArray
 	} else if objectType == singleLog {
 		reply = redisWrapperFunc(redis.String(r.client.Do(string(lindex), key, 0)))
-		return serializer.Deserialize(reply.(string), serializerutil.LogType)
+		return r.loadBrokenTestLog(serializer.Deserialize(reply.(string), serializerutil.LogType).(auditlog.Log))
 	} else if objectType == pipelineInfo {
 		reply = redisWrapperFunc(redis.String(r.client.Do(string(lindex), key, 0)))
 		return serializer.Deserialize(reply.(string), serializerutil.PipelineInfoType)
@@ -423,6 +470,29 @@ func (r *RedisClientImpl) fetch(key string, objectType ObjectType, increment int
 	panic(errors.New("could not find the correct match for fetching item from redis"))
 }
 
+//Test logs stored under their own key are loaded right away, so callers always see BrokenTestLog filled in
+func (r *RedisClientImpl) loadBrokenTestLog(fetchedLog auditlog.Log) auditlog.Log {
+	deploymentLog, ok := fetchedLog.(*auditlog.DeploymentLog)
+	if !ok || deploymentLog.BrokenTestLogKey == "" {
+		return fetchedLog
+	}
+	reply, err := redis.Bytes(r.client.Do(string(get), deploymentLog.BrokenTestLogKey))
+	if err == redis.ErrNil {
+		return fetchedLog
+	}
+	compressedTestLog := redisWrapperFunc(reply, err).([]byte)
+	reader, err := gzip.NewReader(bytes.NewReader(compressedTestLog))
+	if err != nil {
+		panic(err)
+	}
+	testLog, err := io.ReadAll(reader)
+	if err != nil {
+		panic(err)
+	}
+	deploymentLog.BrokenTestLog = string(testLog)
+	return fetchedLog
+}
+
 func redisWrapperFunc(reply interface{}, err error) interface{} {
 	if err != nil {
 		panic(err)
@@ -18,6 +18,13 @@ type GetFileRequest struct {
 	GitCommitHash     string            `json:"gitCommitHash"`
 }
 
+//Files are all read at the same commit. The response maps each filename to its contents, files that can't be found are left out.
+type GetFilesRequest struct {
+	GitRepoSchemaInfo GitRepoSchemaInfo `json:"gitRepoSchemaInfo"`
+	Filenames         []string          `json:"filenames"`
+	GitCommitHash     string            `json:"gitCommitHash"`
+}
+
 type GitRepoSchemaInfo struct {
 	GitRepoUrl string `json:"gitRepoUrl"`
 	PathToRoot string `json:"pathToRoot"`
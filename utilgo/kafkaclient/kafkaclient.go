@@ -3,6 +3,7 @@ package kafkaclient
 import (
 	"context"
 	"crypto/tls"
+	"encoding/json"
 	"log"
 
 	"github.com/greenopsinc/util/tlsmanager"
@@ -32,6 +33,23 @@ func New(address string, tm tlsmanager.Manager) (KafkaClient, error) {
 	return k, nil
 }
 
+// eventKey holds the fields every event carries that make up its message key
+type eventKey struct {
+	OrgName      string `json:"orgName"`
+	TeamName     string `json:"teamName"`
+	PipelineName string `json:"pipelineName"`
+}
+
+// makeEventKey keys events by pipeline, so that the workflow orchestrator handles each pipeline's events in order.
+// It has to match KafkaClient.makeEventKey in the workflow orchestrator.
+func makeEventKey(data string) []byte {
+	var key eventKey
+	if err := json.Unmarshal([]byte(data), &key); err != nil {
+		return nil
+	}
+	return []byte(key.OrgName + "-" + key.TeamName + "-" + key.PipelineName)
+}
+
 func (k *kafkaClient) SendMessage(data string) error {
 	writer, err := k.configureWriter(k.tlsConf)
 	if err != nil {
@@ -39,6 +57,7 @@ func (k *kafkaClient) SendMessage(data string) error {
 	}
 	err = writer.WriteMessages(context.Background(),
 		kafka.Message{
+			Key:   makeEventKey(data),
 			Value: []byte(data),
 		},
 	)
@@ -58,12 +77,14 @@ func (k *kafkaClient) initWriter() error {
 	return nil
 }
 
+// Murmur2Balancer partitions keys the same way as the Java producer, so events for a pipeline share a partition no
+// matter which service published them
 func (k *kafkaClient) configureWriter(tlsConf *tls.Config) (*kafka.Writer, error) {
 	if tlsConf == nil || tlsConf.InsecureSkipVerify {
 		return &kafka.Writer{
 			Addr:     kafka.TCP(k.address),
 			Topic:    kafkaTopic,
-			Balancer: &kafka.LeastBytes{},
+			Balancer: &kafka.Murmur2Balancer{},
 		}, nil
 	}
 	if err := k.watchWriter(); err != nil {
@@ -72,7 +93,7 @@ func (k *kafkaClient) configureWriter(tlsConf *tls.Config) (*kafka.Writer, error
 	return &kafka.Writer{
 		Addr:     kafka.TCP(k.address),
 		Topic:    kafkaTopic,
-		Balancer: &kafka.LeastBytes{},
+		Balancer: &kafka.Murmur2Balancer{},
 		Transport: &kafka.Transport{
 			TLS: tlsConf,
 		},
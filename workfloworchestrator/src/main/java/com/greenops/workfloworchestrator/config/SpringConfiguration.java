@@ -24,8 +24,11 @@ import com.greenops.util.datamodel.mixin.request.*;
 import com.greenops.util.datamodel.pipeline.PipelineSchemaImpl;
 import com.greenops.util.datamodel.pipeline.TeamSchemaImpl;
 import com.greenops.util.datamodel.request.*;
+import com.greenops.util.dbclient.AsyncDbClient;
 import com.greenops.util.dbclient.DbClient;
+import com.greenops.util.dbclient.redis.RedisAsyncDbClient;
 import com.greenops.util.dbclient.redis.RedisDbClient;
+import com.greenops.util.dbclient.redis.ValueFormat;
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.util.kubernetesclient.KubernetesClient;
 import com.greenops.util.kubernetesclient.KubernetesClientImpl;
@@ -36,6 +39,7 @@ import com.greenops.workfloworchestrator.datamodel.mixin.requests.*;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.*;
 import com.greenops.workfloworchestrator.datamodel.requests.*;
 import com.greenops.workfloworchestrator.ingest.kafka.KafkaClient;
+import com.greenops.workfloworchestrator.ingest.kafka.OrderedEventDispatcher;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
@@ -46,8 +50,11 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.ContainerAwareErrorHandler;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
 import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.util.backoff.BackOff;
 import org.springframework.util.backoff.FixedBackOff;
 
 import java.io.IOException;
@@ -83,6 +90,7 @@ public class SpringConfiguration {
                 .addMixIn(ClientDeployRequest.class, ClientDeployRequestMixin.class)
                 .addMixIn(ClientRollbackAndWatchRequest.class, ClientRollbackAndWatchRequestMixin.class)
                 .addMixIn(GetFileRequest.class, GetFileRequestMixin.class)
+                .addMixIn(GetFilesRequest.class, GetFilesRequestMixin.class)
                 .addMixIn(GitRepoSchemaInfo.class, GitRepoSchemaInfoMixin.class)
                 .addMixIn(WatchRequest.class, WatchRequestMixin.class)
                 .addMixIn(KubernetesCreationRequest.class, KubernetesCreationRequestMixin.class)
@@ -125,8 +133,17 @@ public class SpringConfiguration {
     }
 
     @Bean
-    DbClient dbClient(@Value("${application.redis-url}") String redisUrl, ObjectMapper objectMapper) {
-        return new RedisDbClient(redisUrl, objectMapper);
+    DbClient dbClient(@Value("${application.redis-url}") String redisUrl,
+                      @Value("${application.redis-max-connections}") int maxConnections,
+                      @Value("${application.redis-near-cache-size}") int nearCacheSize,
+                      @Value("${application.redis-value-format}") ValueFormat valueFormat,
+                      ObjectMapper objectMapper) {
+        return new RedisDbClient(redisUrl, maxConnections, nearCacheSize, valueFormat, objectMapper);
+    }
+
+    @Bean
+    AsyncDbClient asyncDbClient(@Value("${application.redis-url}") String redisUrl, ObjectMapper objectMapper) {
+        return new RedisAsyncDbClient(redisUrl, objectMapper);
     }
 
     @Bean
@@ -145,33 +162,46 @@ public class SpringConfiguration {
         return new TLSManagerImpl(kclient);
     }
 
+    //Events that failed every retry go to the DLQ, and a failure event is published for the pipeline run
+    @Bean
+    ConsumerRecordRecoverer failedEventRecoverer(KafkaClient kafkaClient) {
+        return (record, exception) -> {
+            //send to DLQ
+            log.info(exception.getMessage(), exception.getCause());
+            kafkaClient.sendMessageToDlq((String) record.value());
+            try {
+                var event = eventAndRequestObjectMapper().readValue((String) record.value(), Event.class);
+                //If its a failure event, chances are the error will keep looping forever
+                if (!(event instanceof FailureEvent)) {
+                    var failureEvent = new FailureEvent(
+                            event.getOrgName(),
+                            event.getTeamName(),
+                            event.getPipelineName(),
+                            event.getPipelineUvn(),
+                            event.getStepName(),
+                            null,
+                            event.getClass().getName(),
+                            exception.getMessage()
+                    );
+                    kafkaClient.sendMessage(failureEvent);
+                }
+            } catch (JsonProcessingException e) {
+                log.info("Couldn't deserialize event to send failure event", e.getCause());
+            }
+            //The offset is committed once this returns
+            kafkaClient.awaitPendingSends();
+        };
+    }
+
+    //Failures handling an event are retried through the retry topics. This only covers failures of the listeners themselves.
+    @Bean
+    BackOff eventRetryBackOff() {
+        return new FixedBackOff(100L, 5L);
+    }
+
     @Bean
     ContainerAwareErrorHandler errorHandler(KafkaClient kafkaClient) {
-        var errorHandler =
-                new SeekToCurrentErrorHandler((record, exception) -> {
-                    //send to DLQ
-                    log.info(exception.getMessage(), exception.getCause());
-                    kafkaClient.sendMessageToDlq((String) record.value());
-                    try {
-                        var event = eventAndRequestObjectMapper().readValue((String) record.value(), Event.class);
-                        //If its a failure event, chances are the error will keep looping forever
-                        if (!(event instanceof FailureEvent)) {
-                            var failureEvent = new FailureEvent(
-                                    event.getOrgName(),
-                                    event.getTeamName(),
-                                    event.getPipelineName(),
-                                    event.getPipelineUvn(),
-                                    event.getStepName(),
-                                    null,
-                                    event.getClass().getName(),
-                                    exception.getMessage()
-                            );
-                            kafkaClient.sendMessage(failureEvent);
-                        }
-                    } catch (JsonProcessingException e) {
-                        log.info("Couldn't deserialize event to send failure event", e.getCause());
-                    }
-                }, new FixedBackOff(100L, 5L));
+        var errorHandler = new SeekToCurrentErrorHandler(failedEventRecoverer(kafkaClient), eventRetryBackOff());
         errorHandler.addNotRetryableExceptions(AtlasNonRetryableError.class);
         return errorHandler;
     }
@@ -182,10 +212,12 @@ public class SpringConfiguration {
             @Value("${application.kafka.producer.bootstrap-servers}") String bootstrapServers,
             @Value("${application.kafka.producer.key-serializer}") String keySerializer,
             @Value("${application.kafka.producer.value-serializer}") String valueSerializer,
+            @Value("${application.kafka.producer.linger-ms}") String lingerMs,
+            @Value("${application.kafka.producer.batch-size}") String batchSize,
             @Value("${application.kafka.ssl.keystore-location}") String keystoreLocation,
             @Value("${application.kafka.ssl.truststore-location}") String truststoreLocation
     ) {
-        ProducerFactory<String, String> factory = producerFactory(tlsManager,bootstrapServers, keySerializer, valueSerializer, keystoreLocation, truststoreLocation);
+        ProducerFactory<String, String> factory = producerFactory(tlsManager,bootstrapServers, keySerializer, valueSerializer, lingerMs, batchSize, keystoreLocation, truststoreLocation);
         return new KafkaTemplate<>(factory);
     }
 
@@ -193,12 +225,14 @@ public class SpringConfiguration {
     public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(
             TLSManager tlsManager,
             KafkaClient kafkaClient,
+            OrderedEventDispatcher orderedEventDispatcher,
             @Value("${application.kafka.consumer.group-id}") String groupId,
             @Value("${application.kafka.consumer.auto-offset-reset}") String autoOffsetReset,
             @Value("${application.kafka.consumer.enable-auto-commit}") String enableAutoCommit,
             @Value("${application.kafka.consumer.bootstrap-servers}") String bootstrapServers,
             @Value("${application.kafka.consumer.key-deserializer}") String keyDeserializer,
             @Value("${application.kafka.consumer.value-deserializer}") String valueDeserializer,
+            @Value("${application.kafka.consumer.concurrency}") int concurrency,
             @Value("${application.kafka.ssl.keystore-location}") String keystoreLocation,
             @Value("${application.kafka.ssl.truststore-location}") String truststoreLocation
     ) {
@@ -207,13 +241,36 @@ public class SpringConfiguration {
         ConsumerFactory<String, String> consumerFactory = consumerFactory(tlsManager,groupId, autoOffsetReset, enableAutoCommit, bootstrapServers, keyDeserializer, valueDeserializer, keystoreLocation, truststoreLocation);
         factory.setConsumerFactory(consumerFactory);
         factory.setErrorHandler(errorHandler(kafkaClient));
+        //Consumer threads only poll and hand events to the dispatcher's workers, so this is bounded by the partition count
+        factory.setConcurrency(concurrency);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        //Events still being handled for a revoked partition are finished before its offsets are committed
+        factory.getContainerProperties().setConsumerRebalanceListener(orderedEventDispatcher);
+        return factory;
+    }
+
+    //Used by the batch listener. Records are grouped and handled before the listener returns, so the batch is committed in
+    //one go and nothing is left in flight when partitions are revoked.
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> batchKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory,
+            @Value("${application.kafka.consumer.concurrency}") int concurrency
+    ) {
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(kafkaListenerContainerFactory.getConsumerFactory());
+        factory.setBatchListener(true);
+        var errorHandler = new SeekToCurrentBatchErrorHandler();
+        errorHandler.setBackOff(eventRetryBackOff());
+        factory.setBatchErrorHandler(errorHandler);
+        factory.setConcurrency(concurrency);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
         return factory;
     }
 
     @Bean
-    public ProducerFactory<String, String> producerFactory(TLSManager tlsManager,String bootstrapServers, String keySerializer, String valueSerializer, String keystoreLocation, String truststoreLocation) {
-        return new DefaultKafkaProducerFactory<>(getKafkaProducerConfigProps(tlsManager,bootstrapServers, keySerializer, valueSerializer, keystoreLocation, truststoreLocation));
+    public ProducerFactory<String, String> producerFactory(TLSManager tlsManager,String bootstrapServers, String keySerializer, String valueSerializer, String lingerMs, String batchSize, String keystoreLocation, String truststoreLocation) {
+        return new DefaultKafkaProducerFactory<>(getKafkaProducerConfigProps(tlsManager,bootstrapServers, keySerializer, valueSerializer, lingerMs, batchSize, keystoreLocation, truststoreLocation));
     }
 
     @Bean
@@ -221,11 +278,16 @@ public class SpringConfiguration {
         return new DefaultKafkaConsumerFactory<>(getKafkaConsumerConfigProps(tlsManager,groupId, autoOffsetReset, enableAutoCommit, bootstrapServers, keyDeserializer, valueDeserializer, keystoreLocation, truststoreLocation));
     }
 
-    private Map<String, Object> getKafkaProducerConfigProps(TLSManager tlsManager,String bootstrapServers, String keySerializer, String valueSerializer, String keystoreLocation, String truststoreLocation) {
+    private Map<String, Object> getKafkaProducerConfigProps(TLSManager tlsManager,String bootstrapServers, String keySerializer, String valueSerializer, String lingerMs, String batchSize, String keystoreLocation, String truststoreLocation) {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
+        //Sends are not flushed one by one anymore, so they are batched up to these limits
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        //Several batches can be in flight at once, this keeps a retried batch from landing behind a later one
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
 
         Map<String, Object> sslConfigProps = getKafkaSSLConfigProps(tlsManager,keystoreLocation, truststoreLocation);
         if (sslConfigProps != null) {
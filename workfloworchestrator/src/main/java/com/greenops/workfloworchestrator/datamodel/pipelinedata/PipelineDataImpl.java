@@ -1,6 +1,7 @@
 package com.greenops.workfloworchestrator.datamodel.pipelinedata;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,6 +9,7 @@ import java.util.stream.Collectors;
 
 import static com.greenops.workfloworchestrator.datamodel.pipelinedata.StepData.ROOT_STEP_NAME;
 
+//Pipeline data parsed at a pinned commit is cached and shared between events, so nothing is changed after construction
 public class PipelineDataImpl implements PipelineData {
 
     private String name;
@@ -69,12 +71,12 @@ public class PipelineDataImpl implements PipelineData {
 
     @Override
     public List<String> getChildrenSteps(String stepName) {
-        return stepChildren.getOrDefault(stepName, List.of());
+        return Collections.unmodifiableList(stepChildren.getOrDefault(stepName, List.of()));
     }
 
     @Override
     public List<String> getParentSteps(String stepName) {
-        return stepParents.getOrDefault(stepName, List.of());
+        return Collections.unmodifiableList(stepParents.getOrDefault(stepName, List.of()));
     }
 
     @Override
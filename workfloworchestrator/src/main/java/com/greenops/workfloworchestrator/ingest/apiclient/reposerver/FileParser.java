@@ -0,0 +1,32 @@
+package com.greenops.workfloworchestrator.ingest.apiclient.reposerver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Turns the contents of a repo file into whatever the caller needs from it, reading straight from the bytes the repo server
+//sent. Results for a pinned commit are cached under the parser's name, so a parser may only depend on the file it is
+//given, and what it returns must never be mutated.
+public interface FileParser<T> {
+
+    String getName();
+    T parse(InputStream file) throws IOException;
+
+    static <T> FileParser<T> of(String name, ParseFunction<T> parseFunction) {
+        return new FileParser<>() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public T parse(InputStream file) throws IOException {
+                return parseFunction.parse(file);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface ParseFunction<T> {
+        T parse(InputStream file) throws IOException;
+    }
+}
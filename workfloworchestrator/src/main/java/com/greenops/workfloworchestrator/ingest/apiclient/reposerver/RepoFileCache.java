@@ -0,0 +1,105 @@
+package com.greenops.workfloworchestrator.ingest.apiclient.reposerver;
+
+import com.greenops.util.datamodel.request.GetFileRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+//Files fetched from the repo server at a full commit hash, along with what has been parsed out of them. The contents of a
+//file can never change once the commit is fixed, so entries are never invalidated, only evicted when the cache is full.
+//Requests for a moving revision (ROOT_COMMIT, LATEST_REVISION, branch names, abbreviated hashes) are never cached.
+final class RepoFileCache {
+
+    //View under which the unparsed contents of a file are cached
+    static final String FILE_VIEW = "file";
+    private static final String CACHE_METRIC = "atlas.reposerver.file.cache";
+    private static final Pattern FULL_COMMIT_HASH = Pattern.compile("[0-9a-fA-F]{40}|[0-9a-fA-F]{64}");
+
+    //Least recently used entries are evicted first
+    private final Map<FileKey, Object> files;
+    private final MeterRegistry meterRegistry;
+    private final Counter evictions;
+
+    RepoFileCache(int maxEntries, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        evictions = meterRegistry.counter("atlas.reposerver.file.cache.evictions");
+        files = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FileKey, Object> eldest) {
+                if (size() <= maxEntries) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+        meterRegistry.gauge("atlas.reposerver.file.cache.size", files, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        });
+    }
+
+    static boolean isPinned(GetFileRequest getFileRequest) {
+        return isPinned(getFileRequest.getGitCommitHash());
+    }
+
+    static boolean isPinned(String gitCommitHash) {
+        return gitCommitHash != null && FULL_COMMIT_HASH.matcher(gitCommitHash).matches();
+    }
+
+    //Returns null on a miss. Only called for pinned requests.
+    Object get(GetFileRequest getFileRequest, String orgName, String teamName, String view) {
+        Object value;
+        synchronized (files) {
+            value = files.get(new FileKey(getFileRequest, orgName, teamName, view));
+        }
+        meterRegistry.counter(CACHE_METRIC, "view", view, "result", value == null ? "miss" : "hit").increment();
+        return value;
+    }
+
+    void put(GetFileRequest getFileRequest, String orgName, String teamName, String view, Object value) {
+        synchronized (files) {
+            files.put(new FileKey(getFileRequest, orgName, teamName, view), value);
+        }
+    }
+
+    //Also identifies fetches that are running, so a file is cached under the same key its fetch was coalesced on
+    static final class FileKey {
+        private final String orgName;
+        private final String teamName;
+        private final String gitRepo;
+        private final String pathToRoot;
+        private final String filename;
+        //Hashes are case insensitive, branch names are not
+        private final String gitCommitHash;
+        private final String view;
+
+        FileKey(GetFileRequest getFileRequest, String orgName, String teamName, String view) {
+            this.orgName = orgName;
+            this.teamName = teamName;
+            gitRepo = getFileRequest.getGitRepoSchemaInfo().getGitRepo();
+            pathToRoot = getFileRequest.getGitRepoSchemaInfo().getPathToRoot();
+            filename = getFileRequest.getFilename();
+            gitCommitHash = isPinned(getFileRequest) ? getFileRequest.getGitCommitHash().toLowerCase() : getFileRequest.getGitCommitHash();
+            this.view = view;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileKey)) return false;
+            var fileKey = (FileKey) o;
+            return Objects.equals(orgName, fileKey.orgName) && Objects.equals(teamName, fileKey.teamName)
+                    && Objects.equals(gitRepo, fileKey.gitRepo) && Objects.equals(pathToRoot, fileKey.pathToRoot)
+                    && Objects.equals(filename, fileKey.filename) && Objects.equals(gitCommitHash, fileKey.gitCommitHash) && view.equals(fileKey.view);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orgName, teamName, gitRepo, pathToRoot, filename, gitCommitHash, view);
+        }
+    }
+}
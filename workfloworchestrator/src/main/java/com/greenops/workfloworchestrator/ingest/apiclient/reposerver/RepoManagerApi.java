@@ -2,9 +2,18 @@ package com.greenops.workfloworchestrator.ingest.apiclient.reposerver;
 
 import com.greenops.util.datamodel.git.GitRepoSchemaInfo;
 import com.greenops.util.datamodel.request.GetFileRequest;
+import com.greenops.util.datamodel.request.GetFilesRequest;
+
+import java.io.IOException;
+import java.util.Map;
 
 public interface RepoManagerApi {
 
     public String getFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName);
+    public <T> T getFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName, FileParser<T> fileParser) throws IOException;
+    //Files that can't be found are left out of the result
+    public Map<String, String> getFilesFromRepo(GetFilesRequest getFilesRequest, String orgName, String teamName);
+    //Loads the files into the file cache in one request. Does nothing unless the commit is pinned.
+    public void prefetchFilesFromRepo(GetFilesRequest getFilesRequest, String orgName, String teamName);
     public void resetRepoVersion(String gitCommit, GitRepoSchemaInfo gitRepoSchemaInfo, String orgName, String teamName);
 }
@@ -1,24 +1,42 @@
 package com.greenops.workfloworchestrator.ingest.apiclient.reposerver;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.greenops.util.datamodel.git.GitRepoSchemaInfo;
 import com.greenops.util.datamodel.request.GetFileRequest;
+import com.greenops.util.datamodel.request.GetFilesRequest;
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.util.error.AtlasRetryableError;
 import com.greenops.util.httpclient.Builder;
 import com.greenops.util.kubernetesclient.KubernetesClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequests;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import static com.greenops.workfloworchestrator.ingest.apiclient.util.ApiClientUtil.checkResponseStatus;
 
@@ -29,67 +47,222 @@ public class RepoManagerApiImpl implements RepoManagerApi {
     private static final String ROOT_DATA_EXTENSION = "data";
     private static final String ROOT_REPO_EXTENSION = "repo";
     private static final String GET_FILE_EXTENSION = "file";
+    private static final String GET_FILES_EXTENSION = "files";
     private static final String GET_COMMIT_EXTENSION = "version";
     private static final String CHANGE_VERSION_EXTENSION = "resetToVersion";
 
     private final String serverRepoEndpoint;
     private final String serverDataEndpoint;
     private final ObjectMapper objectMapper;
-    private final HttpClient httpClient;
+    private final CloseableHttpAsyncClient httpClient;
+    private final RepoFileCache fileCache;
+    //Fetches that are still running. Callers asking for a file that is already being fetched wait for that fetch.
+    private final Map<RepoFileCache.FileKey, CompletableFuture<byte[]>> inFlightFetches = new ConcurrentHashMap<>();
+    private final Counter coalescedFetches;
 
     @Autowired
     public RepoManagerApiImpl(
             @Value("${application.repo-server-url}") String serverEndpoint,
             @Qualifier("eventAndRequestObjectMapper") ObjectMapper objectMapper,
             @Value("${application.repo-server-cert-path}") String serverCertPath,
-            @Value("${application.repo-server-key-path}") String serverKeyPath
+            @Value("${application.repo-server-key-path}") String serverKeyPath,
+            @Value("${application.repo-server-file-cache-size}") int fileCacheSize,
+            @Value("${application.repo-server-max-connections}") int maxConnections,
+            @Value("${application.repo-server-connection-ttl-seconds}") long connectionTtlSeconds,
+            @Value("${application.repo-server-timeout-seconds}") long timeoutSeconds,
+            @Value("${application.repo-server-http2}") boolean http2,
+            MeterRegistry meterRegistry
     ) {
         this.serverRepoEndpoint = serverEndpoint.endsWith("/") ? serverEndpoint + ROOT_REPO_EXTENSION : serverEndpoint + "/" + ROOT_REPO_EXTENSION;
         this.serverDataEndpoint = serverEndpoint.endsWith("/") ? serverEndpoint + ROOT_DATA_EXTENSION : serverEndpoint + "/" + ROOT_DATA_EXTENSION;
         this.objectMapper = objectMapper;
+        this.fileCache = fileCacheSize > 0 ? new RepoFileCache(fileCacheSize, meterRegistry) : null;
+        this.coalescedFetches = meterRegistry.counter("atlas.reposerver.file.fetch.coalesced");
         try {
-            this.httpClient = Builder.create().withCustomTls(serverCertPath, serverKeyPath).build();
+            //Every request goes to the same server, so the whole pool is available to that one route
+            this.httpClient = Builder.create()
+                    .withCustomTls(serverCertPath, serverKeyPath)
+                    .withConnectionPool(maxConnections, maxConnections)
+                    .withConnectionTtl(Duration.ofSeconds(connectionTtlSeconds))
+                    .withResponseTimeout(Duration.ofSeconds(timeoutSeconds))
+                    .withHttp2(http2)
+                    .build();
         } catch (Exception e) {
             log.error("Failed to create RepoServer HTTP client", e);
             throw new AtlasNonRetryableError(e);
         }
     }
 
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down RepoServer HTTP client...");
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
     @Override
     public String getFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName) {
-        var request = new HttpPost(serverDataEndpoint + String.format("/%s/%s/%s", GET_FILE_EXTENSION, orgName, teamName));
+        return new String(getFileBytesFromRepo(getFileRequest, orgName, teamName), StandardCharsets.UTF_8);
+    }
+
+    //Parsed files are cached alongside the file itself, so a cached parse never needs the file to be fetched again.
+    //Parsers read from the buffered bytes of the response, nothing is streamed off the connection.
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName, FileParser<T> fileParser) throws IOException {
+        if (fileCache == null || !RepoFileCache.isPinned(getFileRequest)) {
+            return fileParser.parse(new ByteArrayInputStream(fetchFileFromRepo(getFileRequest, orgName, teamName, false)));
+        }
+        var parsedFile = (T) fileCache.get(getFileRequest, orgName, teamName, fileParser.getName());
+        if (parsedFile == null) {
+            parsedFile = fileParser.parse(new ByteArrayInputStream(getFileBytesFromRepo(getFileRequest, orgName, teamName)));
+            if (parsedFile != null) fileCache.put(getFileRequest, orgName, teamName, fileParser.getName(), parsedFile);
+        }
+        return parsedFile;
+    }
+
+    //Files are kept as the bytes the repo server sent. The arrays are shared with the cache, so they are only ever
+    //handed out wrapped in a stream or decoded into a new string.
+    private byte[] getFileBytesFromRepo(GetFileRequest getFileRequest, String orgName, String teamName) {
+        if (fileCache == null || !RepoFileCache.isPinned(getFileRequest)) {
+            return fetchFileFromRepo(getFileRequest, orgName, teamName, false);
+        }
+        var file = (byte[]) fileCache.get(getFileRequest, orgName, teamName, RepoFileCache.FILE_VIEW);
+        return file != null ? file : fetchFileFromRepo(getFileRequest, orgName, teamName, true);
+    }
+
+    //Only one request per file is sent at a time. The file is cached before the fetch is marked as done, so no caller
+    //can miss both the cache and the running fetch.
+    private byte[] fetchFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName, boolean cacheFile) {
+        var fetchKey = new RepoFileCache.FileKey(getFileRequest, orgName, teamName, RepoFileCache.FILE_VIEW);
+        var fetch = new CompletableFuture<byte[]>();
+        var inFlightFetch = inFlightFetches.putIfAbsent(fetchKey, fetch);
+        if (inFlightFetch != null) {
+            coalescedFetches.increment();
+            try {
+                return inFlightFetch.join();
+            } catch (CompletionException e) {
+                //The error the fetch failed with is rethrown as it is, so retries are decided the same way for every caller
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        try {
+            var file = requestFileFromRepo(getFileRequest, orgName, teamName);
+            if (cacheFile) fileCache.put(getFileRequest, orgName, teamName, RepoFileCache.FILE_VIEW, file);
+            fetch.complete(file);
+            return file;
+        } catch (RuntimeException | Error e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightFetches.remove(fetchKey, fetch);
+        }
+    }
+
+    private byte[] requestFileFromRepo(GetFileRequest getFileRequest, String orgName, String teamName) {
+        var request = SimpleHttpRequests.post(serverDataEndpoint + String.format("/%s/%s/%s", GET_FILE_EXTENSION, orgName, teamName));
         try {
             var requestBody = objectMapper.writeValueAsString(getFileRequest);
-            request.setEntity(new StringEntity(requestBody, ContentType.APPLICATION_JSON));
-            var response = httpClient.execute(request);
-            log.info("Fetch file request for repo {} + {} returned with status code {}", getFileRequest.getGitRepoSchemaInfo().getGitRepo(), getFileRequest.getGitRepoSchemaInfo().getPathToRoot(), response.getStatusLine().getStatusCode());
+            request.setBody(requestBody, ContentType.APPLICATION_JSON);
+            var response = execute(request);
+            log.info("Fetch file request for repo {} + {} returned with status code {}", getFileRequest.getGitRepoSchemaInfo().getGitRepo(), getFileRequest.getGitRepoSchemaInfo().getPathToRoot(), response.getCode());
             checkResponseStatus(response);
-            return new String(response.getEntity().getContent().readAllBytes());
+            return getBody(response);
         } catch (JsonProcessingException e) {
             log.error("Object mapper could not convert GetFileRequest", e);
             throw new AtlasNonRetryableError(e);
         } catch (IOException e) {
             log.error("HTTP get file request failed for repo: {}", getFileRequest.getGitRepoSchemaInfo().getGitRepo(), e);
             throw new AtlasRetryableError(e);
-        } finally {
-            request.releaseConnection();
+        }
+    }
+
+    //Files already cached for a pinned commit are left out of the request, and the fetched ones are cached
+    @Override
+    public Map<String, String> getFilesFromRepo(GetFilesRequest getFilesRequest, String orgName, String teamName) {
+        var gitRepoSchemaInfo = getFilesRequest.getGitRepoSchemaInfo();
+        var gitCommitHash = getFilesRequest.getGitCommitHash();
+        var pinned = fileCache != null && RepoFileCache.isPinned(gitCommitHash);
+        var files = new HashMap<String, String>();
+        var missingFilenames = new ArrayList<String>();
+        for (var filename : getFilesRequest.getFilenames()) {
+            var file = pinned ? (byte[]) fileCache.get(new GetFileRequest(gitRepoSchemaInfo, filename, gitCommitHash), orgName, teamName, RepoFileCache.FILE_VIEW) : null;
+            if (file != null) {
+                files.put(filename, new String(file, StandardCharsets.UTF_8));
+            } else if (!missingFilenames.contains(filename)) {
+                missingFilenames.add(filename);
+            }
+        }
+        if (missingFilenames.isEmpty()) return files;
+        var fetchedFiles = requestFilesFromRepo(new GetFilesRequest(gitRepoSchemaInfo, missingFilenames, gitCommitHash), orgName, teamName);
+        if (pinned) {
+            fetchedFiles.forEach((filename, file) -> fileCache.put(new GetFileRequest(gitRepoSchemaInfo, filename, gitCommitHash), orgName, teamName, RepoFileCache.FILE_VIEW, file.getBytes(StandardCharsets.UTF_8)));
+        }
+        files.putAll(fetchedFiles);
+        return files;
+    }
+
+    //Prefetching is only an optimization, if it fails every file is still fetched on its own when it is needed
+    @Override
+    public void prefetchFilesFromRepo(GetFilesRequest getFilesRequest, String orgName, String teamName) {
+        if (fileCache == null || !RepoFileCache.isPinned(getFilesRequest.getGitCommitHash())) return;
+        try {
+            getFilesFromRepo(getFilesRequest, orgName, teamName);
+        } catch (AtlasRetryableError | AtlasNonRetryableError e) {
+            log.warn("Prefetching files for repo {} failed", getFilesRequest.getGitRepoSchemaInfo().getGitRepo(), e);
+        }
+    }
+
+    private Map<String, String> requestFilesFromRepo(GetFilesRequest getFilesRequest, String orgName, String teamName) {
+        var request = SimpleHttpRequests.post(serverDataEndpoint + String.format("/%s/%s/%s", GET_FILES_EXTENSION, orgName, teamName));
+        try {
+            var requestBody = objectMapper.writeValueAsString(getFilesRequest);
+            request.setBody(requestBody, ContentType.APPLICATION_JSON);
+            var response = execute(request);
+            log.info("Fetch files request for repo {} + {} returned with status code {}", getFilesRequest.getGitRepoSchemaInfo().getGitRepo(), getFilesRequest.getGitRepoSchemaInfo().getPathToRoot(), response.getCode());
+            checkResponseStatus(response);
+            return objectMapper.readValue(getBody(response), new TypeReference<Map<String, String>>() {});
+        } catch (JsonProcessingException e) {
+            log.error("Object mapper could not convert GetFilesRequest or its response", e);
+            throw new AtlasNonRetryableError(e);
+        } catch (IOException e) {
+            log.error("HTTP get files request failed for repo: {}", getFilesRequest.getGitRepoSchemaInfo().getGitRepo(), e);
+            throw new AtlasRetryableError(e);
         }
     }
 
     @Override
     public void resetRepoVersion(String gitCommit, GitRepoSchemaInfo gitRepoSchemaInfo, String orgName, String teamName) {
-        var request = new HttpPost(serverRepoEndpoint + String.format("/%s/%s/%s/%s", CHANGE_VERSION_EXTENSION, orgName, teamName, gitCommit));
+        var request = SimpleHttpRequests.post(serverRepoEndpoint + String.format("/%s/%s/%s/%s", CHANGE_VERSION_EXTENSION, orgName, teamName, gitCommit));
         try {
             var requestBody = objectMapper.writeValueAsString(gitRepoSchemaInfo);
-            request.setEntity(new StringEntity(requestBody, ContentType.APPLICATION_JSON));
-            var response = httpClient.execute(request);
-            log.info("Change version request for repo {} returned with status code {}", gitRepoSchemaInfo.getGitRepo(), response.getStatusLine().getStatusCode());
+            request.setBody(requestBody, ContentType.APPLICATION_JSON);
+            var response = execute(request);
+            log.info("Change version request for repo {} returned with status code {}", gitRepoSchemaInfo.getGitRepo(), response.getCode());
             checkResponseStatus(response);
         } catch (IOException e) {
             log.error("HTTP Change version request failed for repo: {}", gitRepoSchemaInfo.getGitRepo(), e);
             throw new AtlasRetryableError(e);
-        } finally {
-            request.releaseConnection();
         }
     }
+
+    //Requests are sent on the client's I/O threads. The calling thread only waits for the response.
+    private SimpleHttpResponse execute(SimpleHttpRequest request) throws IOException {
+        try {
+            return httpClient.execute(request, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the repo server");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //The body is handed on as the bytes that were received, so parsers decode it as they read it. An empty body comes
+    //back as an empty array.
+    private static byte[] getBody(SimpleHttpResponse response) {
+        var body = response.getBodyBytes();
+        return body == null ? new byte[0] : body;
+    }
 }
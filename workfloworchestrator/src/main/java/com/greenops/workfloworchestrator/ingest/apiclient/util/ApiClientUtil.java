@@ -2,12 +2,12 @@ package com.greenops.workfloworchestrator.ingest.apiclient.util;
 
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.util.error.AtlasRetryableError;
-import org.apache.http.HttpResponse;
+import org.apache.hc.core5.http.HttpResponse;
 
 public class ApiClientUtil {
 
     public static void checkResponseStatus(HttpResponse httpResponse) {
-        switch (httpResponse.getStatusLine().getStatusCode()) {
+        switch (httpResponse.getCode()) {
             case 400:
                 throw new AtlasNonRetryableError("Returned with bad request");
             case 404:
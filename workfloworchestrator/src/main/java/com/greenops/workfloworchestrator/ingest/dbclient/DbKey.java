@@ -26,6 +26,10 @@ public class DbKey {
         return Strings.join(List.of(orgName, teamName, pipelineName, "meta"), '-');
     }
 
+    public static String makeDbPipelineRunQueueKey(String orgName, String teamName, String pipelineName) {
+        return Strings.join(List.of(orgName, teamName, pipelineName, "queue"), '-');
+    }
+
     public static String makeDbListOfTeamsKey(String orgName) {
         return orgName + "-teams";
     }
@@ -1,6 +1,7 @@
 package com.greenops.workfloworchestrator.ingest.handling;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.greenops.util.datamodel.clientmessages.ResourceGvk;
 import com.greenops.util.datamodel.clientmessages.ResourcesGvkRequest;
@@ -11,12 +12,14 @@ import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.PipelineData;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.StepData;
 import com.greenops.workfloworchestrator.ingest.apiclient.clientwrapper.ClientRequestQueue;
+import com.greenops.workfloworchestrator.ingest.apiclient.reposerver.FileParser;
 import com.greenops.workfloworchestrator.ingest.apiclient.reposerver.RepoManagerApi;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.util.List;
 
 import static com.greenops.workfloworchestrator.datamodel.pipelinedata.StepData.ROOT_STEP_NAME;
@@ -27,6 +30,8 @@ import static com.greenops.workfloworchestrator.ingest.handling.EventHandlerImpl
 @Component
 public class DeploymentHandlerImpl implements DeploymentHandler {
 
+    private static final String STEP_NAMESPACE_VIEW = "stepNamespace";
+
     private RepoManagerApi repoManagerApi;
     private ClientRequestQueue clientRequestQueue;
     private MetadataHandler metadataHandler;
@@ -168,8 +173,7 @@ public class DeploymentHandlerImpl implements DeploymentHandler {
     @Override
     public boolean rollbackInPipelineExists(Event event, PipelineData pipelineData, String stepName) {
         var matchingSteps = metadataHandler.findAllStepsWithSameArgoRepoSrc(event, pipelineData, stepName);
-        for (var step : matchingSteps) {
-            var latestDeploymentLog = deploymentLogHandler.getLatestDeploymentLog(event, step);
+        for (var latestDeploymentLog : deploymentLogHandler.getLatestDeploymentLogs(event, matchingSteps)) {
             if (latestDeploymentLog != null
                     && (latestDeploymentLog.getUniqueVersionInstance() > 0 || latestDeploymentLog.getRollbackUniqueVersionNumber() != null)) {
                 return true;
@@ -187,12 +191,13 @@ public class DeploymentHandlerImpl implements DeploymentHandler {
             return DEFAULT_NAMESPACE;
         }
         var getFileRequest = new GetFileRequest(gitRepoSchemaInfo, argoApplicationPath, gitCommitHash);
-        var argoAppPayload = repoManagerApi.getFileFromRepo(getFileRequest, event.getOrgName(), event.getTeamName());
+        //Resolved once per pinned commit and cached next to the Argo application manifest itself
+        var namespaceParser = FileParser.of(STEP_NAMESPACE_VIEW,
+                argoAppPayload -> readField(yamlObjectMapper.getFactory().createParser(argoAppPayload), "spec", "destination", "namespace"));
         String namespace;
         try {
-            var sourceJsonNode = yamlObjectMapper.readTree(argoAppPayload).get("spec").get("destination");
-            namespace = sourceJsonNode.get("namespace").asText(null);
-        } catch (JsonProcessingException e) {
+            namespace = repoManagerApi.getFileFromRepo(getFileRequest, event.getOrgName(), event.getTeamName(), namespaceParser);
+        } catch (IOException e) {
             throw new AtlasNonRetryableError("Argo app configuration cannot be parsed");
         }
         if (namespace == null) {
@@ -200,4 +205,27 @@ public class DeploymentHandlerImpl implements DeploymentHandler {
         }
         return namespace;
     }
+
+    //Streams through the document until the field is found, everything else is skipped without being built. Returns
+    //null if the field is missing or is not a scalar.
+    private static String readField(JsonParser parser, String... path) throws IOException {
+        try (parser) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            var depth = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var fieldName = parser.getCurrentName();
+                var token = parser.nextToken();
+                if (!fieldName.equals(path[depth])) {
+                    parser.skipChildren();
+                } else if (depth == path.length - 1) {
+                    return token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getText() : null;
+                } else if (token == JsonToken.START_OBJECT) {
+                    depth++;
+                } else {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
 }
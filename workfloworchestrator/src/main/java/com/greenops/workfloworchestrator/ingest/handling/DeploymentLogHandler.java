@@ -45,5 +45,5 @@ public interface DeploymentLogHandler {
 
     String getLastSuccessfulDeploymentGitCommitHash(Event event, String stepName);
 
-    DeploymentLog getLatestDeploymentLog(Event event, String stepName);
+    List<DeploymentLog> getLatestDeploymentLogs(Event event, List<String> stepNames);
 }
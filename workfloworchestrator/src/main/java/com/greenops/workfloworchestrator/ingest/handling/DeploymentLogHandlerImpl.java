@@ -16,6 +16,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.greenops.util.datamodel.event.PipelineTriggerEvent.PIPELINE_TRIGGER_EVENT_CLASS_NAME;
 import static com.greenops.workfloworchestrator.datamodel.pipelinedata.StepData.ROOT_STEP_NAME;
@@ -26,6 +27,8 @@ public class DeploymentLogHandlerImpl implements DeploymentLogHandler {
 
     private DbClient dbClient;
 
+    //Reads go through the same client as writes, since inside of an event's unit of work only that client sees the writes
+    //that have not been flushed yet. Repeated reads of a key are served from the unit of work's cache.
     @Autowired
     DeploymentLogHandlerImpl(DbClient dbClient) {
         this.dbClient = dbClient;
@@ -158,11 +161,12 @@ public class DeploymentLogHandlerImpl implements DeploymentLogHandler {
 
     @Override
     public boolean areParentStepsComplete(Event event, List<String> parentSteps) {
-        for (var parentStepName : parentSteps) {
-            if (parentStepName.equals(ROOT_STEP_NAME)) continue;
-            var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), parentStepName);
-            var deploymentLog = dbClient.fetchLatestDeploymentLog(logKey);
-            if (deploymentLog.getUniqueVersionInstance() != 0 || !deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
+        var logKeys = parentSteps.stream()
+                .filter(parentStepName -> !parentStepName.equals(ROOT_STEP_NAME))
+                .map(parentStepName -> DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), parentStepName))
+                .collect(Collectors.toList());
+        for (var deploymentLog : dbClient.fetchLatestDeploymentLogs(logKeys)) {
+            if (deploymentLog == null || deploymentLog.getUniqueVersionInstance() != 0 || !deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
                 return false;
             }
         }
@@ -180,11 +184,9 @@ public class DeploymentLogHandlerImpl implements DeploymentLogHandler {
     @Override
     public String makeRollbackDeploymentLog(Event event, String stepName, int rollbackLimit, boolean dryRun) {
         var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName);
-        var logIncrement = 0;
-        var logList = dbClient.fetchLogList(logKey, logIncrement);
-        if (logList == null || logList.size() == 0) return "";
         var currentLog = dbClient.fetchLatestDeploymentLog(logKey);
         if (currentLog == null) {
+            if (dbClient.fetchLatestLog(logKey) == null) return "";
             throw new AtlasNonRetryableError("A rollback was triggered, but no previous logs could be found for the step.");
         }
         if (currentLog.getUniqueVersionInstance() >= rollbackLimit) {
@@ -195,74 +197,46 @@ public class DeploymentLogHandlerImpl implements DeploymentLogHandler {
         if (currentLog.getStatus().equals(Log.LogStatus.PROGRESSING.name()) && currentLog.getUniqueVersionInstance() > 0) {
             return currentLog.getGitCommitVersion();
         }
-        int idx = 0;
+        Stream<DeploymentLog> deploymentLogs;
         //If a specific rollback UVN has already been tried but has failed, we want to skip to the first instance of that UVN and search before then.
         if (currentLog.getUniqueVersionInstance() > 0) {
-            while (idx < logList.size()) {
-                if (currentLog.getRollbackUniqueVersionNumber().equals(logList.get(idx).getPipelineUniqueVersionNumber())
-                        && logList.get(idx).getUniqueVersionInstance() == 0) {
-                    idx++;
-                    break;
-                }
-                idx++;
-                if (idx == logList.size()) {
-                    logIncrement++;
-                    logList = dbClient.fetchLogList(logKey, logIncrement);
-                    idx = 0;
-                }
-            }
-        } else if (currentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
-            while (idx < logList.size()) {
-                if (!(logList.get(idx) instanceof DeploymentLog)) {
-                    idx++;
-                    continue;
-                }
-                if (!currentLog.getPipelineUniqueVersionNumber().equals((logList.get(idx)).getPipelineUniqueVersionNumber())) {
-                    break;
-                }
-                idx++;
-                if (idx == logList.size()) {
-                    logIncrement++;
-                    logList = dbClient.fetchLogList(logKey, logIncrement);
-                    idx = 0;
-                }
+            var rollbackUvn = currentLog.getRollbackUniqueVersionNumber();
+            deploymentLogs = dbClient.streamLogs(logKey)
+                    .dropWhile(logEntry -> !(rollbackUvn.equals(logEntry.getPipelineUniqueVersionNumber()) && logEntry.getUniqueVersionInstance() == 0))
+                    .skip(1)
+                    .filter(DeploymentLog.class::isInstance)
+                    .map(DeploymentLog.class::cast);
+        } else {
+            deploymentLogs = dbClient.streamLogs(logKey, DeploymentLog.class);
+            if (currentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
+                var currentUvn = currentLog.getPipelineUniqueVersionNumber();
+                deploymentLogs = deploymentLogs.dropWhile(deploymentLog -> currentUvn.equals(deploymentLog.getPipelineUniqueVersionNumber()));
             }
         }
-        while (idx < logList.size()) {
-            if (!(logList.get(idx) instanceof DeploymentLog)) {
-                idx++;
-                continue;
-            }
-            var deploymentLog = (DeploymentLog) logList.get(idx);
-            if (deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name()) && deploymentLog.getUniqueVersionInstance() == 0) {
-                var gitCommitVersion = deploymentLog.getGitCommitVersion();
+        var rollbackLog = deploymentLogs
+                .filter(deploymentLog -> deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name()) && deploymentLog.getUniqueVersionInstance() == 0)
+                .findFirst();
+        if (rollbackLog.isEmpty()) return "";
+        var deploymentLog = rollbackLog.get();
+        var gitCommitVersion = deploymentLog.getGitCommitVersion();
 
-                logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), event.getStepName());
-                var newLog = new DeploymentLog(
-                        currentLog.getPipelineUniqueVersionNumber(),
-                        logList.get(idx).getPipelineUniqueVersionNumber(),
-                        currentLog.getUniqueVersionInstance() + 1,
-                        Log.LogStatus.PROGRESSING.name(),
-                        false,
-                        deploymentLog.getArgoApplicationName(),
-                        deploymentLog.getArgoRevisionHash(),
-                        gitCommitVersion,
-                        null,
-                        null
-                );
-                if (!dryRun) {
-                    dbClient.insertValueInList(logKey, newLog);
-                }
-                return gitCommitVersion;
-            }
-            idx++;
-            if (idx == logList.size()) {
-                logIncrement++;
-                logList = dbClient.fetchLogList(logKey, logIncrement);
-                idx = 0;
-            }
+        logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), event.getStepName());
+        var newLog = new DeploymentLog(
+                currentLog.getPipelineUniqueVersionNumber(),
+                deploymentLog.getPipelineUniqueVersionNumber(),
+                currentLog.getUniqueVersionInstance() + 1,
+                Log.LogStatus.PROGRESSING.name(),
+                false,
+                deploymentLog.getArgoApplicationName(),
+                deploymentLog.getArgoRevisionHash(),
+                gitCommitVersion,
+                null,
+                null
+        );
+        if (!dryRun) {
+            dbClient.insertValueInList(logKey, newLog);
         }
-        return "";
+        return gitCommitVersion;
     }
 
     @Override
@@ -294,58 +268,27 @@ public class DeploymentLogHandlerImpl implements DeploymentLogHandler {
     @Override
     public String getLastSuccessfulStepGitCommitHash(Event event, String stepName) {
         var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName);
-        var logIncrement = 0;
-        var logList = dbClient.fetchLogList(logKey, logIncrement);
-        if (logList == null || logList.size() == 0) return null;
-        int idx = 0;
-        while (idx < logList.size()) {
-            if (!(logList.get(idx) instanceof DeploymentLog)) {
-                idx++;
-                continue;
-            }
-            var deploymentLog = (DeploymentLog) logList.get(idx);
-            if (deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
-                return deploymentLog.getGitCommitVersion();
-            }
-            idx++;
-            if (idx == logList.size()) {
-                logIncrement++;
-                logList = dbClient.fetchLogList(logKey, logIncrement);
-                idx = 0;
-            }
-        }
-        return null;
+        return dbClient.streamLogs(logKey, DeploymentLog.class, Log.LogStatus.SUCCESS.name())
+                .findFirst()
+                .map(DeploymentLog::getGitCommitVersion)
+                .orElse(null);
     }
 
     @Override
     public String getLastSuccessfulDeploymentGitCommitHash(Event event, String stepName) {
         var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName);
-        var logIncrement = 0;
-        var logList = dbClient.fetchLogList(logKey, logIncrement);
-        if (logList == null || logList.size() == 0) return null;
-        int idx = 0;
-        while (idx < logList.size()) {
-            if (!(logList.get(idx) instanceof DeploymentLog)) {
-                idx++;
-                continue;
-            }
-            var deploymentLog = (DeploymentLog) logList.get(idx);
-            if (deploymentLog.isDeploymentComplete()) {
-                return deploymentLog.getGitCommitVersion();
-            }
-            idx++;
-            if (idx == logList.size()) {
-                logIncrement++;
-                logList = dbClient.fetchLogList(logKey, logIncrement);
-                idx = 0;
-            }
-        }
-        return null;
+        return dbClient.streamLogs(logKey, DeploymentLog.class)
+                .filter(deploymentLog -> deploymentLog.isDeploymentComplete())
+                .findFirst()
+                .map(DeploymentLog::getGitCommitVersion)
+                .orElse(null);
     }
 
     @Override
-    public DeploymentLog getLatestDeploymentLog(Event event, String stepName) {
-        var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName);
-        return dbClient.fetchLatestDeploymentLog(logKey);
+    public List<DeploymentLog> getLatestDeploymentLogs(Event event, List<String> stepNames) {
+        var logKeys = stepNames.stream()
+                .map(stepName -> DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName))
+                .collect(Collectors.toList());
+        return dbClient.fetchLatestDeploymentLogs(logKeys);
     }
 }
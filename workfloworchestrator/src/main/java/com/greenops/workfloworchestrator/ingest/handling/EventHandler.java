@@ -4,4 +4,8 @@ import com.greenops.util.datamodel.event.Event;
 
 public interface EventHandler {
     void handleEvent(Event event);
+
+    //Every handleEvent call made by the work shares one unit of work and one team schema lookup. Meant for events of the
+    //same pipeline handled back to back on one thread.
+    void handleEventGroup(Runnable work);
 }
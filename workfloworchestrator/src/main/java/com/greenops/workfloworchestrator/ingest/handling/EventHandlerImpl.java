@@ -2,6 +2,7 @@ package com.greenops.workfloworchestrator.ingest.handling;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.util.datamodel.auditlog.DeploymentLog;
 import com.greenops.util.datamodel.auditlog.Log;
 import com.greenops.util.datamodel.auditlog.PipelineInfo;
 import com.greenops.util.datamodel.auditlog.RemediationLog;
@@ -10,21 +11,28 @@ import com.greenops.util.datamodel.event.*;
 import com.greenops.util.datamodel.git.GitRepoSchemaInfo;
 import com.greenops.util.datamodel.pipeline.TeamSchema;
 import com.greenops.util.datamodel.request.GetFileRequest;
+import com.greenops.util.datamodel.request.GetFilesRequest;
+import com.greenops.util.dbclient.AsyncDbClient;
 import com.greenops.util.dbclient.DbClient;
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.PipelineData;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.StepData;
 import com.greenops.workfloworchestrator.datamodel.pipelinedata.Test;
+import com.greenops.workfloworchestrator.ingest.apiclient.reposerver.FileParser;
 import com.greenops.workfloworchestrator.ingest.apiclient.reposerver.RepoManagerApi;
 import com.greenops.workfloworchestrator.ingest.dbclient.DbKey;
+import com.greenops.workfloworchestrator.ingest.kafka.EventPreFilter;
 import com.greenops.workfloworchestrator.ingest.kafka.KafkaClient;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static com.greenops.util.datamodel.event.ClientCompletionEvent.*;
@@ -42,45 +50,120 @@ public class EventHandlerImpl implements EventHandler {
 
     private RepoManagerApi repoManagerApi;
     private DbClient dbClient;
+    private AsyncDbClient asyncDbClient;
     private DeploymentHandler deploymentHandler;
     private TestHandler testHandler;
     private DeploymentLogHandler deploymentLogHandler;
     private KafkaClient kafkaClient;
+    private EventPreFilter eventPreFilter;
     private ObjectMapper yamlObjectMapper;
     private ObjectMapper objectMapper;
+    private ObjectMapper eventAndRequestObjectMapper;
+    private FileParser<PipelineData> pipelineDataParser;
+    private boolean coalesceQueuedTriggers;
+    //Set while an event group runs on this thread
+    private final ThreadLocal<Boolean> inEventGroup = ThreadLocal.withInitial(() -> false);
 
     @Autowired
     EventHandlerImpl(RepoManagerApi repoManagerApi,
                      DbClient dbClient,
+                     AsyncDbClient asyncDbClient,
                      DeploymentHandler deploymentHandler,
                      TestHandler testHandler,
                      DeploymentLogHandler deploymentLogHandler,
                      KafkaClient kafkaClient,
+                     EventPreFilter eventPreFilter,
                      @Qualifier("yamlObjectMapper") ObjectMapper yamlObjectMapper,
-                     @Qualifier("objectMapper") ObjectMapper objectMapper) {
+                     @Qualifier("objectMapper") ObjectMapper objectMapper,
+                     @Qualifier("eventAndRequestObjectMapper") ObjectMapper eventAndRequestObjectMapper,
+                     @Value("${application.pipeline-trigger-coalescing}") boolean coalesceQueuedTriggers) {
         this.repoManagerApi = repoManagerApi;
         this.dbClient = dbClient;
+        this.asyncDbClient = asyncDbClient;
         this.deploymentHandler = deploymentHandler;
         this.testHandler = testHandler;
         this.deploymentLogHandler = deploymentLogHandler;
         this.kafkaClient = kafkaClient;
+        this.eventPreFilter = eventPreFilter;
         this.yamlObjectMapper = yamlObjectMapper;
         this.objectMapper = objectMapper;
+        this.eventAndRequestObjectMapper = eventAndRequestObjectMapper;
+        this.coalesceQueuedTriggers = coalesceQueuedTriggers;
+        //The YAML is bound straight into the pipeline data model, and at a pinned commit the result is cached and shared
+        this.pipelineDataParser = FileParser.of("pipelineData",
+                file -> objectMapper.readValue(yamlObjectMapper.getFactory().createParser(file), PipelineData.class));
     }
 
     @Override
     public void handleEvent(Event event) {
         log.info("Handling event of type {}", event.getClass().getName());
+        if (inEventGroup.get()) {
+            handleGroupedEvent(event);
+            return;
+        }
+        //Every event is handled in its own unit of work, so that concurrent listener threads never share transaction state.
+        //Its writes are flushed together once the event is handled (or earlier, right before an event is published).
+        dbClient.beginUnitOfWork();
+        try {
+            processEvent(event);
+            dbClient.flush();
+        } finally {
+            dbClient.endUnitOfWork();
+        }
+    }
+
+    @Override
+    public void handleEventGroup(Runnable work) {
+        dbClient.beginUnitOfWork();
+        inEventGroup.set(true);
+        try {
+            work.run();
+        } finally {
+            inEventGroup.remove();
+            dbClient.endUnitOfWork();
+        }
+    }
+
+    //Only keys written by the events before this one stay cached. Anything else is read again, so a change made elsewhere
+    //in the meantime (like a pipeline being cancelled) is seen the same as it would be outside of a group. If the event
+    //fails, what it queued is dropped along with everything cached so far, so a retry starts from what is in Redis.
+    private void handleGroupedEvent(Event event) {
+        dbClient.forgetUnwrittenReads();
+        try {
+            processEvent(event);
+            dbClient.flush();
+        } catch (RuntimeException e) {
+            dbClient.endUnitOfWork();
+            dbClient.beginUnitOfWork();
+            throw e;
+        }
+    }
+
+    private void processEvent(Event event) {
+        //The step's latest deployment log is fetched while the team schema is read, which is usually served by the near cache
+        var stepKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), event.getStepName());
+        var deploymentLogFuture = event instanceof PipelineTriggerEvent
+                ? CompletableFuture.<DeploymentLog>completedFuture(null)
+                : asyncDbClient.fetchLatestDeploymentLog(stepKey);
         var teamSchema = fetchTeamSchema(event);
         if (teamSchema == null) throw new AtlasNonRetryableError("The team doesn't exist");
+        var deploymentLog = deploymentLogFuture.join();
+        //Lets later events from runs this step has moved on from be dropped before they are read
+        if (deploymentLog != null) {
+            eventPreFilter.recordCurrentUvn(stepKey, deploymentLog.getPipelineUniqueVersionNumber());
+        }
 
         //This checks whether the event was from a previous pipeline run. If it is, it will be ignored.
-        if (isStaleEvent(event)) {
+        if (isStaleEvent(event, deploymentLog)) {
             log.info("Event from pipeline {} is stale, ignoring...", event.getPipelineUvn());
             return;
         }
         if (event instanceof FailureEvent) {
             handleFailureEvent((FailureEvent) event);
+            var pipelineSchema = teamSchema.getPipelineSchema(event.getPipelineName());
+            if (pipelineSchema != null) {
+                wakeQueuedPipelineRun(event, new GitRepoSchemaInfo(pipelineSchema.getGitRepoSchema().getGitRepo(), pipelineSchema.getGitRepoSchema().getPathToRoot()));
+            }
             return;
         }
 
@@ -90,7 +173,9 @@ public class EventHandlerImpl implements EventHandler {
         } else if (event instanceof PipelineTriggerEvent) {
             gitCommit = ((PipelineTriggerEvent) event).getRevisionHash();
         } else if (!event.getStepName().equals(ROOT_STEP_NAME)) {
-            gitCommit = deploymentLogHandler.getCurrentGitCommitHash(event, event.getStepName());
+            if (deploymentLog == null)
+                throw new AtlasNonRetryableError("No deployment log found for this key, no commit hash will be found.");
+            gitCommit = deploymentLog.getGitCommitVersion();
         }
 
         var tempGitRepoSchema = teamSchema.getPipelineSchema(event.getPipelineName()).getGitRepoSchema();
@@ -113,9 +198,8 @@ public class EventHandlerImpl implements EventHandler {
         }
     }
 
-    private boolean isStaleEvent(Event event) {
+    private boolean isStaleEvent(Event event, DeploymentLog deploymentLog) {
         if (event instanceof PipelineTriggerEvent) return false;
-        var deploymentLog = deploymentLogHandler.getLatestDeploymentLog(event, event.getStepName());
         if (deploymentLog != null
                 && (deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name()) || deploymentLog.getStatus().equals(Log.LogStatus.FAILURE.name()) || deploymentLog.getStatus().equals(Log.LogStatus.CANCELLED.name()))
                 && (event instanceof TestCompletionEvent || event instanceof ApplicationInfraTriggerEvent || event instanceof ApplicationInfraCompletionEvent || event instanceof FailureEvent)) {
@@ -123,7 +207,7 @@ public class EventHandlerImpl implements EventHandler {
         } else if (deploymentLog != null && deploymentLog.getStatus().equals(Log.LogStatus.PROGRESSING.name()) && event instanceof TriggerStepEvent) {
             return true;
         }
-        var currentUvn = deploymentLogHandler.getCurrentPipelineUvn(event, event.getStepName());
+        var currentUvn = deploymentLog != null ? deploymentLog.getPipelineUniqueVersionNumber() : null;
         if (!event.getPipelineUvn().equals(currentUvn) && event instanceof TriggerStepEvent) {
             return false;
         }
@@ -133,6 +217,24 @@ public class EventHandlerImpl implements EventHandler {
     private void handlePipelineTriggerEvent(PipelineData pipelineData, GitRepoSchemaInfo gitRepoSchemaInfo, PipelineTriggerEvent event) {
         var pipelineInfoKey = DbKey.makeDbPipelineInfoKey(event.getOrgName(), event.getTeamName(), event.getPipelineName());
         var pipelineInfo = dbClient.fetchLatestPipelineInfo(pipelineInfoKey);
+        //A trigger that was delivered more than once only starts its run the first time
+        if (pipelineInfo != null && event.getPipelineUvn().equals(pipelineInfo.getPipelineUvn())) {
+            log.info("Pipeline run {} has already started, ignoring...", event.getPipelineUvn());
+            return;
+        }
+        if (isPipelineRunInProgress(event, gitRepoSchemaInfo, pipelineInfo)) {
+            queueNewPipelineRun(event, pipelineInfo.getPipelineUvn());
+            //The run may have ended after it was checked but before the trigger was queued, in which case the event that
+            //ended it found nothing to wake. Checking again with fresh reads makes sure the trigger isn't left waiting.
+            dbClient.forgetUnwrittenReads();
+            wakeQueuedPipelineRun(event, gitRepoSchemaInfo);
+            return;
+        }
+        initializeNewPipelineRun(event, gitRepoSchemaInfo, pipelineData);
+    }
+
+    //Checks whether the latest run of the event's pipeline still has steps to go through
+    private boolean isPipelineRunInProgress(Event event, GitRepoSchemaInfo gitRepoSchemaInfo, PipelineInfo pipelineInfo) {
         var listOfSteps = pipelineInfo != null ? pipelineInfo.getStepList() : null;
         PipelineData currentPipelineData;
         if (pipelineInfo != null && listOfSteps != null && listOfSteps.size() > 0) {
@@ -141,14 +243,9 @@ public class EventHandlerImpl implements EventHandler {
             var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), listOfSteps.get(0));
             var deploymentLog = dbClient.fetchLatestDeploymentLog(logKey);
             if (deploymentLog == null || !deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn)) {
-                if (pipelineInfo.getErrors().size() == 0) {
-                    //If there is a list but the deployment log is null it means the first step has not been triggered yet
-                    queueNewPipelineRun(event, latestUvn);
-                } else {
-                    //Errors combined with no logs for the first step means there was an error and the pipeline is complete
-                    initializeNewPipelineRun(event, gitRepoSchemaInfo, pipelineData);
-                }
-                return;
+                //If there is a list but the deployment log is null it means the first step has not been triggered yet.
+                //Errors combined with no logs for the first step means there was an error and the pipeline is complete.
+                return pipelineInfo.getErrors().size() == 0;
             }
             currentPipelineData = fetchPipelineData(event, gitRepoSchemaInfo, deploymentLog.getGitCommitVersion());
 
@@ -165,49 +262,128 @@ public class EventHandlerImpl implements EventHandler {
             if (orderedStepsBfs.size() == 0) {
                 orderedStepsBfs.add(pipelineInfo.getStepList().get(0));
             }
-            //Iterates through the logs to verify completion
+            //Iterates through the logs to verify completion. Each BFS level is fetched in one batch.
             var idx = 0;
-            while (idx < orderedStepsBfs.size()) {
-                logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), orderedStepsBfs.get(idx));
-                deploymentLog = dbClient.fetchLatestDeploymentLog(logKey);
-                if (deploymentLog == null || !deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn)) {
-                    progressing = true;
-                    break;
-                }
-                if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.PROGRESSING.name())) {
-                    progressing = true;
-                    break;
-                } else if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.FAILURE.name())) {
-                    var stepData = currentPipelineData.getStep(orderedStepsBfs.get(idx));
-                    //If the step has rollbacks enabled but has failed & not hit its rollback limit, the pipeline is still progressing
-                    //The second part of the expression ensures that there is not a valid version to rollback to (if there isn't, the rollback limit may not have been hit)
-                    if (stepData.getRollbackLimit() > deploymentLog.getUniqueVersionInstance()
-                            && !deploymentLogHandler.makeRollbackDeploymentLog(event, stepData.getName(), stepData.getRollbackLimit(), true).isBlank()) {
+            while (idx < orderedStepsBfs.size() && !progressing) {
+                var levelSteps = new ArrayList<>(orderedStepsBfs.subList(idx, orderedStepsBfs.size()));
+                var levelDeploymentLogs = dbClient.fetchLatestDeploymentLogs(
+                        levelSteps.stream().map(stepName -> DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName)).collect(Collectors.toList())
+                );
+                for (var levelIdx = 0; levelIdx < levelSteps.size(); levelIdx++) {
+                    var stepName = levelSteps.get(levelIdx);
+                    deploymentLog = levelDeploymentLogs.get(levelIdx);
+                    if (deploymentLog == null || !deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn)) {
+                        progressing = true;
+                        break;
+                    }
+                    if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.PROGRESSING.name())) {
                         progressing = true;
                         break;
+                    } else if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.FAILURE.name())) {
+                        var stepData = currentPipelineData.getStep(stepName);
+                        //If the step has rollbacks enabled but has failed & not hit its rollback limit, the pipeline is still progressing
+                        //The second part of the expression ensures that there is not a valid version to rollback to (if there isn't, the rollback limit may not have been hit)
+                        if (stepData.getRollbackLimit() > deploymentLog.getUniqueVersionInstance()
+                                && !deploymentLogHandler.makeRollbackDeploymentLog(event, stepData.getName(), stepData.getRollbackLimit(), true).isBlank()) {
+                            progressing = true;
+                            break;
+                        }
+                    } else if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
+                        orderedStepsBfs.addAll(
+                                currentPipelineData.getChildrenSteps(stepName).stream().filter(
+                                        childStepName -> pipelineInfo.getStepList().contains(childStepName)
+                                ).collect(Collectors.toList())
+                        );
                     }
-                } else if (deploymentLog.getPipelineUniqueVersionNumber().equals(latestUvn) && deploymentLog.getStatus().equals(Log.LogStatus.SUCCESS.name())) {
-                    orderedStepsBfs.addAll(
-                            currentPipelineData.getChildrenSteps(orderedStepsBfs.get(idx)).stream().filter(
-                                    stepName -> pipelineInfo.getStepList().contains(stepName)
-                            ).collect(Collectors.toList())
-                    );
                 }
-                idx++;
-            }
-            if (progressing) {
-                queueNewPipelineRun(event, latestUvn);
-                return;
+                idx += levelSteps.size();
             }
+            return progressing;
         }
-        initializeNewPipelineRun(event, gitRepoSchemaInfo, pipelineData);
+        return false;
     }
 
+    //Triggers wait here until the run ahead of them is done, rather than going around the topic again
     private void queueNewPipelineRun(PipelineTriggerEvent event, String latestUvn) {
-        kafkaClient.sendMessage(event);
+        var runQueueKey = DbKey.makeDbPipelineRunQueueKey(event.getOrgName(), event.getTeamName(), event.getPipelineName());
+        try {
+            dbClient.addToSortedSet(runQueueKey, System.currentTimeMillis(), eventAndRequestObjectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new AtlasNonRetryableError(e);
+        }
         log.info("Pipeline {} in progress, queueing up pipeline {}.", latestUvn, event.getPipelineUvn());
     }
 
+    //Called when a step of the run has finished (or a trigger was just queued). If the run is done, the trigger that has
+    //been waiting the longest is published again. Only the caller that takes the trigger off the queue publishes it, so
+    //two wakes racing each other never start the same run twice. With coalescing turned on, the newest trigger of the
+    //same kind is published instead, and the ones in between that were taken off the queue are recorded as skipped.
+    private void wakeQueuedPipelineRun(Event event, GitRepoSchemaInfo gitRepoSchemaInfo) {
+        var runQueueKey = DbKey.makeDbPipelineRunQueueKey(event.getOrgName(), event.getTeamName(), event.getPipelineName());
+        var queuedTrigger = dbClient.fetchFirstInSortedSet(runQueueKey);
+        if (queuedTrigger == null) return;
+        var pipelineInfo = dbClient.fetchLatestPipelineInfo(DbKey.makeDbPipelineInfoKey(event.getOrgName(), event.getTeamName(), event.getPipelineName()));
+        if (isPipelineRunInProgress(event, gitRepoSchemaInfo, pipelineInfo)) return;
+        var supersededTriggers = List.<String>of();
+        if (coalesceQueuedTriggers) {
+            var sameKindTriggers = fetchQueuedTriggersLike(runQueueKey, queuedTrigger);
+            queuedTrigger = sameKindTriggers.get(sameKindTriggers.size() - 1);
+            supersededTriggers = sameKindTriggers.subList(0, sameKindTriggers.size() - 1);
+        }
+        if (!dbClient.removeFromSortedSet(runQueueKey, queuedTrigger)) {
+            log.info("Queued run for pipeline {} was already woken up", event.getPipelineName());
+            return;
+        }
+        log.info("Pipeline {} is done, waking up the next queued run", pipelineInfo != null ? pipelineInfo.getPipelineUvn() : null);
+        var removedTriggers = new ArrayList<String>();
+        for (var supersededTrigger : supersededTriggers) {
+            if (dbClient.removeFromSortedSet(runQueueKey, supersededTrigger)) removedTriggers.add(supersededTrigger);
+        }
+        recordSkippedPipelineRuns(event, removedTriggers, queuedTrigger);
+        removedTriggers.add(queuedTrigger);
+        try {
+            //The skipped runs are flushed before the trigger is published, so the trigger's run is the latest one again
+            kafkaClient.sendMessage(queuedTrigger);
+            kafkaClient.awaitPendingSends();
+        } catch (RuntimeException e) {
+            //Put back at the front of the queue in their original order, to be woken up again when the event is retried
+            for (var idx = 0; idx < removedTriggers.size(); idx++) {
+                dbClient.addToSortedSet(runQueueKey, idx, removedTriggers.get(idx));
+            }
+            throw e;
+        }
+    }
+
+    //Queued triggers for the same starting step as the given one, oldest first. Full runs are only coalesced with full
+    //runs, and sub-pipeline runs with runs of the same sub-pipeline.
+    private List<String> fetchQueuedTriggersLike(String runQueueKey, String queuedTrigger) {
+        var stepName = readQueuedTrigger(queuedTrigger).getStepName();
+        var sameKindTriggers = dbClient.fetchSortedSet(runQueueKey).stream()
+                .filter(trigger -> readQueuedTrigger(trigger).getStepName().equals(stepName))
+                .collect(Collectors.toList());
+        //The trigger may have been taken off the queue in the meantime (by a cancellation)
+        return sameKindTriggers.isEmpty() ? List.of(queuedTrigger) : sameKindTriggers;
+    }
+
+    private void recordSkippedPipelineRuns(Event event, List<String> supersededTriggers, String queuedTrigger) {
+        if (supersededTriggers.isEmpty()) return;
+        var pipelineInfoKey = DbKey.makeDbPipelineInfoKey(event.getOrgName(), event.getTeamName(), event.getPipelineName());
+        var startingUvn = readQueuedTrigger(queuedTrigger).getPipelineUvn();
+        for (var supersededTrigger : supersededTriggers) {
+            var skippedUvn = readQueuedTrigger(supersededTrigger).getPipelineUvn();
+            log.info("Skipping queued pipeline run {}, superseded by {}", skippedUvn, startingUvn);
+            dbClient.insertValueInList(pipelineInfoKey, new PipelineInfo(skippedUvn, List.of(), List.of(), startingUvn));
+        }
+    }
+
+    private PipelineTriggerEvent readQueuedTrigger(String queuedTrigger) {
+        try {
+            return (PipelineTriggerEvent) eventAndRequestObjectMapper.readValue(queuedTrigger, Event.class);
+        } catch (JsonProcessingException e) {
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
     private void initializeNewPipelineRun(PipelineTriggerEvent event, GitRepoSchemaInfo gitRepoSchemaInfo, PipelineData pipelineData) {
         var pipelineInfoKey = DbKey.makeDbPipelineInfoKey(event.getOrgName(), event.getTeamName(), event.getPipelineName());
         log.info("Starting new run for pipeline {}", event.getPipelineName());
@@ -278,6 +454,7 @@ public class EventHandlerImpl implements EventHandler {
             if (event.getHealthStatus().equals(DEGRADED) || event.getHealthStatus().equals(UNKNOWN)) {
                 deploymentLogHandler.markStepFailedWithFailedDeployment(event, event.getStepName());
                 if (step.getRollbackLimit() > 0) rollback(event);
+                wakeQueuedPipelineRun(event, gitRepoSchemaInfo);
                 return;
             }
             deploymentLogHandler.markDeploymentSuccessful(event, event.getStepName());
@@ -296,6 +473,7 @@ public class EventHandlerImpl implements EventHandler {
         if (!event.getSuccessful()) {
             deploymentLogHandler.markStepFailedWithBrokenTest(event, event.getStepName(), getTestNameFromNumber(step, event.getTestNumber()), event.getLog());
             if (step.getRollbackLimit() > 0) rollback(event);
+            wakeQueuedPipelineRun(event, gitRepoSchemaInfo);
             return;
         }
 
@@ -396,6 +574,7 @@ public class EventHandlerImpl implements EventHandler {
         }
 
         var stepData = pipelineData.getStep(event.getStepName());
+        prefetchStepFiles(event, gitRepoSchemaInfo, stepData, gitCommit);
 
         var beforeTestsExist = stepData.getTests().stream().anyMatch(Test::shouldExecuteBefore);
         if (beforeTestsExist) {
@@ -421,14 +600,17 @@ public class EventHandlerImpl implements EventHandler {
 
     private void triggerNextSteps(PipelineData pipelineData, StepData step, GitRepoSchemaInfo gitRepoSchemaInfo, Event event) {
         var currentGitCommit = "";
+        var stepFinished = false;
         if (event instanceof PipelineTriggerEvent) {
             currentGitCommit = ((PipelineTriggerEvent) event).getRevisionHash();
         } else if (!step.getName().equals(ROOT_STEP_NAME)) {
             deploymentLogHandler.markStepSuccessful(event, event.getStepName());
             currentGitCommit = deploymentLogHandler.getCurrentGitCommitHash(event, step.getName());
+            stepFinished = true;
         }
 
         if (isSubPipelineRun(event)) {
+            if (stepFinished) wakeQueuedPipelineRun(event, gitRepoSchemaInfo);
             return;
         }
 
@@ -446,6 +628,10 @@ public class EventHandlerImpl implements EventHandler {
             }
         }
         kafkaClient.sendMessage(triggerStepEvents);
+        //A finished step that starts nothing else may have been the last one of the run
+        if (stepFinished && triggerStepEvents.isEmpty()) {
+            wakeQueuedPipelineRun(event, gitRepoSchemaInfo);
+        }
     }
 
     private boolean isSubPipelineRun(Event event) {
@@ -483,17 +669,25 @@ public class EventHandlerImpl implements EventHandler {
     private PipelineData fetchPipelineData(Event event, GitRepoSchemaInfo gitRepoSchemaInfo, String gitCommitHash) {
         var getFileRequest = new GetFileRequest(gitRepoSchemaInfo, PIPELINE_FILE_NAME, gitCommitHash);
         try {
-            return objectMapper.readValue(
-                    objectMapper.writeValueAsString(
-                            yamlObjectMapper.readValue(repoManagerApi.getFileFromRepo(getFileRequest, event.getOrgName(), event.getTeamName()), Object.class)
-                    ),
-                    PipelineData.class);
-        } catch (JsonProcessingException e) {
+            return repoManagerApi.getFileFromRepo(getFileRequest, event.getOrgName(), event.getTeamName(), pipelineDataParser);
+        } catch (IOException e) {
             log.error("Could not parse YAML pipeline data file", e);
             throw new AtlasNonRetryableError(e);
         }
     }
 
+    //Every file the step will need is fetched in one request, the deployment and test handlers then read them from the cache
+    private void prefetchStepFiles(Event event, GitRepoSchemaInfo gitRepoSchemaInfo, StepData stepData, String gitCommitHash) {
+        var filenames = new ArrayList<String>();
+        if (stepData.getArgoApplicationPath() != null) filenames.add(stepData.getArgoApplicationPath());
+        if (stepData.getOtherDeploymentsPath() != null) filenames.add(stepData.getOtherDeploymentsPath());
+        for (var test : stepData.getTests()) {
+            if (test.getPath() != null) filenames.add(test.getPath());
+        }
+        if (filenames.size() < 2) return;
+        repoManagerApi.prefetchFilesFromRepo(new GetFilesRequest(gitRepoSchemaInfo, filenames, gitCommitHash), event.getOrgName(), event.getTeamName());
+    }
+
     private String getTestNameFromNumber(StepData stepData, int testNumber) {
         return stepData.getTests().get(testNumber).getPath();
     }
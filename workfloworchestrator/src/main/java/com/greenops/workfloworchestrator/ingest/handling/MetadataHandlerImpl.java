@@ -81,10 +81,11 @@ public class MetadataHandlerImpl implements MetadataHandler {
         log.info("Get Argo revision for pipeline locking");
         var argoRepoSchema = getCurrentArgoRepoMetadata(event, currentStepName);
         var precedingSteps = findAllPrecedingSteps(pipelineData, currentStepName);
-        for (var stepName : precedingSteps) {
-            var dependentArgoRepoSchema = getCurrentArgoRepoMetadata(event, stepName);
+        var precedingArgoRepoSchemas = getCurrentArgoRepoMetadata(event, precedingSteps);
+        for (var idx = 0; idx < precedingSteps.size(); idx++) {
+            var dependentArgoRepoSchema = precedingArgoRepoSchemas.get(idx);
             if (argoRepoSchema != null && argoRepoSchema.equals(dependentArgoRepoSchema)) {
-                var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName);
+                var logKey = DbKey.makeDbStepKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), precedingSteps.get(idx));
                 var deploymentLog = dbClient.fetchLatestDeploymentLog(logKey);
                 return deploymentLog.getArgoRevisionHash();
             }
@@ -94,10 +95,25 @@ public class MetadataHandlerImpl implements MetadataHandler {
 
     public List<String> findAllStepsWithSameArgoRepoSrc(Event event, PipelineData pipelineData, String currentStepName) {
         var argoRepoSchema = getCurrentArgoRepoMetadata(event, currentStepName);
-        return pipelineData.getAllSteps().stream().filter(stepName -> {
-            var dependentArgoRepoSchema = getCurrentArgoRepoMetadata(event, stepName);
-            return dependentArgoRepoSchema.equals(argoRepoSchema);
-        }).collect(Collectors.toList());
+        var allSteps = pipelineData.getAllSteps();
+        var allArgoRepoSchemas = getCurrentArgoRepoMetadata(event, allSteps);
+        var matchingSteps = new ArrayList<String>();
+        for (var idx = 0; idx < allSteps.size(); idx++) {
+            if (allArgoRepoSchemas.get(idx).equals(argoRepoSchema)) {
+                matchingSteps.add(allSteps.get(idx));
+            }
+        }
+        return matchingSteps;
+    }
+
+    //Fetches the metadata of all the steps in one batch, preserving the order of the step names
+    private List<ArgoRepoSchema> getCurrentArgoRepoMetadata(Event event, List<String> stepNames) {
+        var keys = stepNames.stream()
+                .map(stepName -> DbKey.makeDbMetadataKey(event.getOrgName(), event.getTeamName(), event.getPipelineName(), stepName))
+                .collect(Collectors.toList());
+        return dbClient.fetchMultipleMetadata(keys).stream()
+                .map(metadata -> metadata != null ? metadata.getArgoRepoSchema() : null)
+                .collect(Collectors.toList());
     }
 
     private List<String> findAllPrecedingSteps(PipelineData pipelineData, String currentStepName) {
@@ -0,0 +1,164 @@
+package com.greenops.workfloworchestrator.ingest.kafka;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.workfloworchestrator.ingest.dbclient.DbKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.greenops.util.datamodel.event.ClientCompletionEvent.PROGRESSING;
+
+//Drops records that the event handler would ignore anyway, before they are deserialized or the team schema is loaded.
+//Only the top level fields of a record are streamed through, nested objects are skipped without being read.
+//Two kinds of records are dropped:
+//1. Progressing client completion events, which Argo sends in floods while an application syncs
+//2. Events from a run that is known to have been replaced on its step. Once a step's latest deployment log has moved on
+//to another run, events from the earlier run are stale. Only runs seen being replaced are remembered, so an out of date
+//table lets events through instead of dropping events for a newer run.
+@Component
+public class EventPreFilter {
+
+    private static final String CLIENT_COMPLETION_TYPE = "clientcompletion";
+    //Pipeline triggers and step triggers start runs, so they are never stale by run alone
+    private static final Set<String> UVN_CHECKED_TYPES = Set.of("clientcompletion", "testcompletion", "appinfratrigger", "appinfracompletion", "failureevent");
+    private static final int REPLACED_UVNS_PER_STEP = 8;
+
+    private final JsonFactory jsonFactory;
+    //Least recently used steps are evicted first
+    private final Map<String, StepUvns> steps;
+    private final Counter progressingSkipped;
+    private final Counter staleSkipped;
+
+    @Autowired
+    public EventPreFilter(@Qualifier("eventAndRequestObjectMapper") ObjectMapper objectMapper,
+                          @Value("${application.kafka.consumer.pre-filter-steps}") int maxSteps,
+                          MeterRegistry meterRegistry) {
+        //A table that can't hold a single step would forget every run as soon as it is recorded
+        if (maxSteps <= 0) {
+            throw new IllegalArgumentException("application.kafka.consumer.pre-filter-steps must be at least 1, was " + maxSteps);
+        }
+        this.jsonFactory = objectMapper.getFactory();
+        this.steps = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StepUvns> eldest) {
+                return size() > maxSteps;
+            }
+        };
+        this.progressingSkipped = meterRegistry.counter("atlas.kafka.prefilter.skipped", "reason", "progressing");
+        this.staleSkipped = meterRegistry.counter("atlas.kafka.prefilter.skipped", "reason", "stale");
+    }
+
+    //Records that can't be read are let through, the full deserialization reports them
+    public boolean canSkip(String value) {
+        if (value == null) return false;
+        EventFields fields;
+        try {
+            fields = readEventFields(value);
+        } catch (IOException e) {
+            return false;
+        }
+        if (fields == null || fields.type == null) return false;
+        if (fields.type.equals(CLIENT_COMPLETION_TYPE) && PROGRESSING.equals(fields.healthStatus)) {
+            progressingSkipped.increment();
+            return true;
+        }
+        if (!UVN_CHECKED_TYPES.contains(fields.type) || fields.pipelineUvn == null || fields.stepName == null) return false;
+        var stepKey = DbKey.makeDbStepKey(fields.orgName, fields.teamName, fields.pipelineName, fields.stepName);
+        boolean stale;
+        synchronized (steps) {
+            var stepUvns = steps.get(stepKey);
+            stale = stepUvns != null && stepUvns.replaced.contains(fields.pipelineUvn);
+        }
+        if (stale) staleSkipped.increment();
+        return stale;
+    }
+
+    //Called by the event handler with the run of a step's latest deployment log
+    public void recordCurrentUvn(String stepKey, String pipelineUvn) {
+        synchronized (steps) {
+            var stepUvns = steps.computeIfAbsent(stepKey, key -> new StepUvns());
+            if (pipelineUvn.equals(stepUvns.current)) return;
+            if (stepUvns.current != null) stepUvns.replace(stepUvns.current);
+            //A run that is current again is not stale anymore
+            stepUvns.replaced.remove(pipelineUvn);
+            stepUvns.current = pipelineUvn;
+        }
+    }
+
+    //Returns null if the record isn't a JSON object
+    private EventFields readEventFields(String value) throws IOException {
+        try (var parser = jsonFactory.createParser(value)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            var fields = new EventFields();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.getCurrentName();
+                var token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                var text = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                switch (name) {
+                    case "type":
+                        fields.type = text;
+                        break;
+                    case "healthStatus":
+                        fields.healthStatus = text;
+                        break;
+                    case "orgName":
+                        fields.orgName = text;
+                        break;
+                    case "teamName":
+                        fields.teamName = text;
+                        break;
+                    case "pipelineName":
+                        fields.pipelineName = text;
+                        break;
+                    case "stepName":
+                        fields.stepName = text;
+                        break;
+                    case "pipelineUvn":
+                        fields.pipelineUvn = text;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return fields;
+        }
+    }
+
+    private static final class EventFields {
+        private String type;
+        private String healthStatus;
+        private String orgName;
+        private String teamName;
+        private String pipelineName;
+        private String stepName;
+        private String pipelineUvn;
+    }
+
+    private static final class StepUvns {
+        private String current;
+        //Oldest first
+        private final Set<String> replaced = new LinkedHashSet<>();
+
+        private void replace(String pipelineUvn) {
+            replaced.add(pipelineUvn);
+            if (replaced.size() > REPLACED_UVNS_PER_STEP) {
+                replaced.remove(replaced.iterator().next());
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.greenops.workfloworchestrator.ingest.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+//Events that fail are moved off their partition onto a chain of retry topics, and each attempt waits longer than the one
+//before it. The attempt number and the time the record is due are carried in its headers. An event that fails its last
+//attempt is given up on.
+@Component
+public class EventRetryTopics {
+
+    static final String ATTEMPT_HEADER = "atlas-retry-attempt";
+    static final String DUE_TIME_HEADER = "atlas-retry-due-time";
+
+    private final String[] names;
+    private final long[] delays;
+
+    @Autowired
+    public EventRetryTopics(@Value("${application.kafka.topic}") String topic,
+                            @Value("${application.kafka.retry.attempts}") int attempts,
+                            @Value("${application.kafka.retry.initial-delay-ms}") long initialDelayMs,
+                            @Value("${application.kafka.retry.multiplier}") int multiplier) {
+        this.names = new String[attempts];
+        this.delays = new long[attempts];
+        var delay = initialDelayMs;
+        for (var idx = 0; idx < attempts; idx++) {
+            names[idx] = topic + ".retry." + (idx + 1);
+            delays[idx] = delay;
+            delay *= multiplier;
+        }
+    }
+
+    //Referenced by the retry listener
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public int getAttempts() {
+        return names.length;
+    }
+
+    //Attempts are counted from 1
+    public String getName(int attempt) {
+        return names[attempt - 1];
+    }
+
+    public long getDelay(int attempt) {
+        return delays[attempt - 1];
+    }
+
+    //Records from the main topic have not been retried yet
+    public static int getAttempt(ConsumerRecord<String, String> record) {
+        var header = record.headers().lastHeader(ATTEMPT_HEADER);
+        return header == null ? 0 : Integer.parseInt(new String(header.value(), StandardCharsets.UTF_8));
+    }
+
+    //Returns 0 for records that can be handled straight away
+    public static long getDueTime(ConsumerRecord<String, String> record) {
+        var header = record.headers().lastHeader(DUE_TIME_HEADER);
+        return header == null ? 0L : Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+    }
+}
@@ -3,15 +3,28 @@ package com.greenops.workfloworchestrator.ingest.kafka;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.greenops.util.datamodel.event.Event;
+import com.greenops.util.dbclient.DbClient;
 import com.greenops.util.error.AtlasNonRetryableError;
+import com.greenops.util.error.AtlasRetryableError;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
+//Sends are asynchronous and batched by the producer. Every send made on a thread is tracked until awaitPendingSends is
+//called, which is done right before the offset of the record being handled is acknowledged.
+@Slf4j
 @Component
 public class KafkaClient {
 
@@ -19,42 +32,100 @@ public class KafkaClient {
     private final String normalTopic;
     private final String dlqTopic;
     private final KafkaTemplate<String, String> kafkaTemplate;
+    private final DbClient dbClient;
+    private final ThreadLocal<List<ListenableFuture<SendResult<String, String>>>> pendingSends = ThreadLocal.withInitial(ArrayList::new);
 
     @Autowired
-    public KafkaClient(@Qualifier("eventAndRequestObjectMapper") ObjectMapper objectMapper, @Value("${application.kafka.topic}") String topic, @Value("${application.kafka.dlqtopic}") String dlqTopic, KafkaTemplate<String, String> kafkaTemplate) {
+    public KafkaClient(@Qualifier("eventAndRequestObjectMapper") ObjectMapper objectMapper, @Value("${application.kafka.topic}") String topic, @Value("${application.kafka.dlqtopic}") String dlqTopic, KafkaTemplate<String, String> kafkaTemplate, DbClient dbClient) {
         this.objectMapper = objectMapper;
         this.normalTopic = topic;
         this.dlqTopic = dlqTopic;
         this.kafkaTemplate = kafkaTemplate;
+        this.dbClient = dbClient;
     }
 
-    public void sendMessage(Event event) {
+    //Events for the same pipeline land on the same partition and are handled in order, different pipelines run in
+    //parallel. Has to match the key the Go services use.
+    public static String makeEventKey(Event event) {
+        return event.getOrgName() + "-" + event.getTeamName() + "-" + event.getPipelineName();
+    }
+
+    //Whoever handles a published event has to see the writes that led to it, so queued Redis writes go out first
+    public ListenableFuture<SendResult<String, String>> sendMessage(Event event) {
+        dbClient.flush();
         try {
-            kafkaTemplate.send(normalTopic, objectMapper.writeValueAsString(event));
+            return send(normalTopic, makeEventKey(event), objectMapper.writeValueAsString(event));
         } catch (JsonProcessingException e) {
             throw new AtlasNonRetryableError(e);
         }
-        kafkaTemplate.flush();
     }
 
     public void sendMessage(List<Event> events) {
+        dbClient.flush();
         try {
             for (var event : events) {
-                kafkaTemplate.send(normalTopic, objectMapper.writeValueAsString(event));
+                send(normalTopic, makeEventKey(event), objectMapper.writeValueAsString(event));
             }
         } catch (JsonProcessingException e) {
             throw new AtlasNonRetryableError(e);
         }
-        kafkaTemplate.flush();
     }
 
-    public void sendMessage(String data) {
-        kafkaTemplate.send(normalTopic, data);
-        kafkaTemplate.flush();
+    public ListenableFuture<SendResult<String, String>> sendMessage(String data) {
+        dbClient.flush();
+        try {
+            return send(normalTopic, makeEventKey(objectMapper.readValue(data, Event.class)), data);
+        } catch (JsonProcessingException e) {
+            throw new AtlasNonRetryableError(e);
+        }
+    }
+
+    public ListenableFuture<SendResult<String, String>> sendMessageToDlq(String data) {
+        return send(dlqTopic, null, data);
+    }
+
+    //The record keeps its key, so its retries are still spread across partitions by pipeline
+    public ListenableFuture<SendResult<String, String>> sendMessageToRetryTopic(ConsumerRecord<String, String> record, String retryTopic, int attempt, long dueTime) {
+        var producerRecord = new ProducerRecord<>(retryTopic, record.key(), record.value());
+        producerRecord.headers().add(EventRetryTopics.ATTEMPT_HEADER, Integer.toString(attempt).getBytes(StandardCharsets.UTF_8));
+        producerRecord.headers().add(EventRetryTopics.DUE_TIME_HEADER, Long.toString(dueTime).getBytes(StandardCharsets.UTF_8));
+        var future = kafkaTemplate.send(producerRecord);
+        pendingSends.get().add(future);
+        return future;
+    }
+
+    //Blocks until everything sent from this thread since the last call is on the broker. Sends that failed are reported
+    //once every send has completed, so a retry of the record knows nothing is still in flight.
+    public void awaitPendingSends() {
+        var sends = pendingSends.get();
+        if (sends.isEmpty()) return;
+        pendingSends.remove();
+        Exception failure = null;
+        for (var send : sends) {
+            try {
+                send.get();
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AtlasRetryableError(e);
+            }
+        }
+        if (failure != null) throw new AtlasRetryableError("Publishing events failed", failure.getCause());
+    }
+
+    //Waits for whatever a failed attempt left in flight, so it does not count against the next record handled on the thread
+    public void discardPendingSends() {
+        try {
+            awaitPendingSends();
+        } catch (AtlasRetryableError e) {
+            log.info("Events published by a failed attempt did not all go through", e.getCause());
+        }
     }
 
-    public void sendMessageToDlq(String data) {
-        kafkaTemplate.send(dlqTopic, data);
-        kafkaTemplate.flush();
+    private ListenableFuture<SendResult<String, String>> send(String topic, String key, String data) {
+        var future = kafkaTemplate.send(topic, key, data);
+        pendingSends.get().add(future);
+        return future;
     }
 }
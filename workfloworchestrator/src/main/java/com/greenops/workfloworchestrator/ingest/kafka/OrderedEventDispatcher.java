@@ -0,0 +1,245 @@
+package com.greenops.workfloworchestrator.ingest.kafka;
+
+import com.greenops.util.error.AtlasNonRetryableError;
+import com.greenops.util.error.AtlasRetryableError;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Hands consumed records to a pool of workers. Records with the same key are handled one at a time in the order they were
+//consumed, records with different keys run in parallel. Offsets are only acknowledged once every earlier record of the
+//partition has been handled, so a restart never skips an event that was still in progress. Events that fail are
+//published to the next retry topic and acknowledged, instead of being retried in place. A retried event only joins its
+//key's lane once it is due, so it runs after events for the key that were consumed in the meantime, not before them.
+@Slf4j
+@Component
+public class OrderedEventDispatcher implements ConsumerAwareRebalanceListener {
+
+    private static final long DRAIN_TIMEOUT_MS = 30000L;
+
+    private final ExecutorService workers;
+    //Bounds how far the consumer threads can get ahead of the workers
+    private final Semaphore inFlight;
+    //Retried events are bounded separately, so events waiting out their retry delay never hold up the main topic
+    private final Semaphore retriesInFlight;
+    //Holds retried events until they are due
+    private final ScheduledExecutorService retryScheduler;
+    private final ConsumerRecordRecoverer recoverer;
+    private final EventRetryTopics retryTopics;
+    private final KafkaClient kafkaClient;
+    //The last piece of work queued for each key. Entries are removed once a key has nothing left to run.
+    private final Map<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public OrderedEventDispatcher(@Value("${application.kafka.consumer.workers}") int workerCount,
+                                  @Value("${application.kafka.consumer.max-in-flight}") int maxInFlight,
+                                  @Value("${application.kafka.consumer.max-retries-in-flight}") int maxRetriesInFlight,
+                                  @Qualifier("failedEventRecoverer") ConsumerRecordRecoverer recoverer,
+                                  EventRetryTopics retryTopics,
+                                  KafkaClient kafkaClient) {
+        var threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            var thread = new Thread(runnable, "event-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "event-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlight = new Semaphore(maxInFlight);
+        this.retriesInFlight = new Semaphore(maxRetriesInFlight);
+        this.recoverer = recoverer;
+        this.retryTopics = retryTopics;
+        this.kafkaClient = kafkaClient;
+    }
+
+    //Called from the consumer thread. Records from a retry topic only block the retry consumer when too many are waiting.
+    public void dispatch(String key, ConsumerRecord<String, String> record, Acknowledgment ack, Runnable work) {
+        var permits = EventRetryTopics.getAttempt(record) > 0 ? retriesInFlight : inFlight;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AtlasRetryableError(e);
+        }
+        var topicPartition = new TopicPartition(record.topic(), record.partition());
+        var partitionOffsets = partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets());
+        partitionOffsets.add(record.offset());
+
+        //Every record on a retry topic waits the same amount of time, so they still come due in the order they were
+        //consumed. They only join their lane once due, so later events for the key are not held up in the meantime.
+        var delay = EventRetryTopics.getDueTime(record) - System.currentTimeMillis();
+        if (delay > 0) {
+            retryScheduler.schedule(() -> runInLane(key, record, ack, partitionOffsets, permits, work), delay, TimeUnit.MILLISECONDS);
+        } else {
+            runInLane(key, record, ack, partitionOffsets, permits, work);
+        }
+    }
+
+    //Records that need no handling are acknowledged in turn with the rest of their partition. Called from the consumer thread.
+    public void skip(ConsumerRecord<String, String> record, Acknowledgment ack) {
+        var topicPartition = new TopicPartition(record.topic(), record.partition());
+        var partitionOffsets = partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets());
+        partitionOffsets.add(record.offset());
+        partitionOffsets.complete(record.offset(), ack);
+    }
+
+    private void runInLane(String key, ConsumerRecord<String, String> record, Acknowledgment ack, PartitionOffsets partitionOffsets, Semaphore permits, Runnable work) {
+        var done = new CompletableFuture<Void>();
+        var previous = lanes.put(key, done);
+        (previous == null ? CompletableFuture.completedFuture(null) : previous).whenCompleteAsync((result, throwable) -> {
+            try {
+                handle(record, work);
+            } finally {
+                lanes.remove(key, done);
+                done.complete(null);
+                partitionOffsets.complete(record.offset(), ack);
+                permits.release();
+            }
+        }, workers);
+    }
+
+    //Runs every group on the workers and returns once all of them are done, so that the batch listener can commit the
+    //whole batch afterwards. Groups are expected to call handle for each of their records, one after the other.
+    public void runGroups(Collection<Runnable> groups) {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var group : groups) {
+            futures.add(CompletableFuture.runAsync(group, workers));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AtlasRetryableError(e);
+        } catch (ExecutionException e) {
+            throw new AtlasRetryableError(e.getCause());
+        }
+    }
+
+    //A failed event is published to the next retry topic, and is only given up on once it has failed on the last one or
+    //cannot be retried at all
+    public void handle(ConsumerRecord<String, String> record, Runnable work) {
+        try {
+            work.run();
+            //Events published while handling the record have to be on the broker before its offset is acknowledged.
+            //A failed publish retries the record like any other failure.
+            kafkaClient.awaitPendingSends();
+        } catch (RuntimeException e) {
+            kafkaClient.discardPendingSends();
+            var attempt = EventRetryTopics.getAttempt(record) + 1;
+            if (e instanceof AtlasNonRetryableError || attempt > retryTopics.getAttempts()) {
+                recover(record, e);
+            } else {
+                retry(record, attempt, e);
+            }
+        }
+    }
+
+    private void retry(ConsumerRecord<String, String> record, int attempt, RuntimeException exception) {
+        var retryTopic = retryTopics.getName(attempt);
+        var delay = retryTopics.getDelay(attempt);
+        log.info("Handling record at offset {} failed, retrying on {} in {}ms", record.offset(), retryTopic, delay, exception);
+        try {
+            kafkaClient.sendMessageToRetryTopic(record, retryTopic, attempt, System.currentTimeMillis() + delay);
+            kafkaClient.awaitPendingSends();
+        } catch (RuntimeException e) {
+            log.error("Could not publish record at offset {} to {}", record.offset(), retryTopic, e);
+            recover(record, exception);
+        }
+    }
+
+    private void recover(ConsumerRecord<String, String> record, RuntimeException exception) {
+        try {
+            recoverer.accept(record, exception);
+        } catch (RuntimeException e) {
+            log.error("Could not recover record at offset {}", record.offset(), e);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        for (var topicPartition : revoked) {
+            var partitionOffsets = partitions.remove(topicPartition);
+            if (partitionOffsets != null && !partitionOffsets.awaitDrained(DRAIN_TIMEOUT_MS)) {
+                log.info("Events for partition {} are still being handled, they may be consumed again", topicPartition);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down event workers...");
+        //Retries that are not due yet have not been acknowledged, so they are consumed again after a restart
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Offsets of a partition that have been dispatched but not yet acknowledged, in the order they were consumed
+    private static final class PartitionOffsets {
+        private final ArrayDeque<Long> outstanding = new ArrayDeque<>();
+        private final Map<Long, Acknowledgment> completed = new HashMap<>();
+
+        synchronized void add(long offset) {
+            outstanding.add(offset);
+        }
+
+        //Acknowledges the newest record that has no unfinished records before it. Acks are taken under the lock so that
+        //a later offset is never committed before an earlier one.
+        synchronized void complete(long offset, Acknowledgment ack) {
+            completed.put(offset, ack);
+            Acknowledgment lastAck = null;
+            while (!outstanding.isEmpty() && completed.containsKey(outstanding.peek())) {
+                lastAck = completed.remove(outstanding.poll());
+            }
+            if (lastAck != null) lastAck.acknowledge();
+            if (outstanding.isEmpty()) notifyAll();
+        }
+
+        synchronized boolean awaitDrained(long timeoutMs) {
+            var deadline = System.currentTimeMillis() + timeoutMs;
+            while (!outstanding.isEmpty()) {
+                var remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -6,12 +6,21 @@ import com.greenops.util.datamodel.event.Event;
 import com.greenops.util.error.AtlasNonRetryableError;
 import com.greenops.workfloworchestrator.ingest.handling.EventHandler;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+//Only one of the two main topic listeners is started, depending on application.kafka.consumer.batch-listener. Retry topics
+//are always consumed one record at a time.
 @Slf4j
 @Component
 public class SpringKafkaListener {
@@ -19,21 +28,87 @@ public class SpringKafkaListener {
     @Autowired
     EventHandler eventHandler;
 
+    @Autowired
+    OrderedEventDispatcher orderedEventDispatcher;
+
+    @Autowired
+    EventPreFilter eventPreFilter;
+
     @Autowired
     @Qualifier("eventAndRequestObjectMapper")
     ObjectMapper objectMapper;
 
-    @KafkaListener(topics = "${application.kafka.topic}", groupId = "${application.kafka.consumer.group-id}")
-    public void listen(String message, Acknowledgment ack) {
+    //Events are handled on the dispatcher's workers, and acknowledged by the dispatcher once they are done
+    @KafkaListener(topics = "${application.kafka.topic}", groupId = "${application.kafka.consumer.group-id}",
+            autoStartup = "#{!${application.kafka.consumer.batch-listener}}")
+    public void listen(ConsumerRecord<String, String> record, Acknowledgment ack) {
+        if (eventPreFilter.canSkip(record.value())) {
+            orderedEventDispatcher.skip(record, ack);
+            return;
+        }
+        var event = readEvent(record);
+        orderedEventDispatcher.dispatch(getKey(record, event), record, ack, makeWork(record, event));
+    }
+
+    //Events that failed before. The dispatcher holds each one back until it is due, then handles it like any other event.
+    @KafkaListener(topics = "#{@eventRetryTopics.getNames()}", groupId = "${application.kafka.consumer.group-id}")
+    public void listenRetry(ConsumerRecord<String, String> record, Acknowledgment ack) {
+        listen(record, ack);
+    }
+
+    //A poll's worth of records is grouped by key. Groups run in parallel, each handling its events in order against state
+    //loaded once for the group, and the offsets of the whole batch are committed once every group is done.
+    @KafkaListener(topics = "${application.kafka.topic}", groupId = "${application.kafka.consumer.group-id}",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${application.kafka.consumer.batch-listener}",
+            properties = "max.poll.records:${application.kafka.consumer.max-poll-records}")
+    public void listenBatch(List<ConsumerRecord<String, String>> records, Acknowledgment ack) {
+        var recordGroups = new LinkedHashMap<String, List<Runnable>>();
+        var skipped = 0;
+        for (var record : records) {
+            if (eventPreFilter.canSkip(record.value())) {
+                skipped++;
+                continue;
+            }
+            var event = readEvent(record);
+            var work = makeWork(record, event);
+            recordGroups.computeIfAbsent(getKey(record, event), key -> new ArrayList<>())
+                    .add(() -> orderedEventDispatcher.handle(record, work));
+        }
+        log.info("Handling batch of {} records in {} groups, {} skipped", records.size() - skipped, recordGroups.size(), skipped);
+        var groups = recordGroups.values().stream()
+                .map(group -> (Runnable) () -> eventHandler.handleEventGroup(() -> group.forEach(Runnable::run)))
+                .collect(Collectors.toList());
+        orderedEventDispatcher.runGroups(groups);
+        ack.acknowledge();
+    }
+
+    //Returns null if the record isn't an event
+    private Event readEvent(ConsumerRecord<String, String> record) {
         try {
-            var event = objectMapper.readValue(message, Event.class);
-            eventHandler.handleEvent(event);
-            ack.acknowledge();
+            return objectMapper.readValue(record.value(), Event.class);
         } catch (JsonProcessingException e) {
             log.error("ObjectMapper could not map message to Event", e);
-            throw new AtlasNonRetryableError(e);
+            return null;
         }
     }
 
-    //TODO: Add repartitioning handling
+    //Records published before events were keyed fall back to the key they would have had. Records that aren't events
+    //keep to their partition's order.
+    private String getKey(ConsumerRecord<String, String> record, Event event) {
+        if (record.key() != null) return record.key();
+        if (event != null) return KafkaClient.makeEventKey(event);
+        return new TopicPartition(record.topic(), record.partition()).toString();
+    }
+
+    //Records that aren't events still go through the dispatcher, so their offsets aren't committed ahead of events that
+    //are in progress
+    private Runnable makeWork(ConsumerRecord<String, String> record, Event event) {
+        if (event == null) {
+            return () -> {
+                throw new AtlasNonRetryableError("Could not map record at offset " + record.offset() + " to Event");
+            };
+        }
+        return () -> eventHandler.handleEvent(event);
+    }
 }
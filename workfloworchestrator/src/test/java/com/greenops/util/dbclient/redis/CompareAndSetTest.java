@@ -0,0 +1,121 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompareAndSetTest {
+
+    private static final String VALUE_KEY = "compareandsettest-value";
+    private static final String LIST_KEY = "compareandsettest-list";
+    private static final String OTHER_LIST_KEY = "compareandsettest-otherlist";
+
+    private TestRedis redis;
+    private RedisCommands<String, String> commands;
+
+    @BeforeEach
+    void beforeEach() {
+        redis = TestRedis.connectOrSkip();
+        commands = redis.commands();
+        deleteKeys();
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (redis == null) return;
+        deleteKeys();
+        redis.close();
+    }
+
+    @Test
+    void testStoreValueOnMatchingEtag() {
+        String etag = storeValue("1", NO_ETAG, "first");
+        assertEquals(valueEtag("first"), etag);
+        etag = storeValue("1", etag, "second");
+        assertEquals(valueEtag("second"), etag);
+        assertEquals("second", commands.get(VALUE_KEY));
+    }
+
+    @Test
+    void testStoreValueOnMismatchWritesNothing() {
+        commands.set(VALUE_KEY, "first");
+        assertNull(storeValue("1", valueEtag("something else"), "second"));
+        assertEquals("first", commands.get(VALUE_KEY));
+        //A key that was read as missing but has been created since
+        assertNull(storeValue("1", NO_ETAG, "second"));
+        assertEquals("first", commands.get(VALUE_KEY));
+        //Unconditional writes ignore the etag
+        assertEquals(valueEtag("second"), storeValue("0", valueEtag("something else"), "second"));
+    }
+
+    @Test
+    void testStoreListOnMismatchWritesNothing() {
+        commands.lpush(LIST_KEY, "first");
+        var etag = listEtag(1, "first");
+        assertNull(storeInList("1", listEtag(1, "other"), INSERT_OPERATION, "second"));
+        assertNull(storeInList("1", listEtag(2, "first"), POP_OPERATION, ""));
+        assertNull(storeInList("1", NO_ETAG, UPDATE_OPERATION, "second"));
+        assertEquals(List.of("first"), commands.lrange(LIST_KEY, 0, -1));
+        assertEquals(0, commands.exists(LogIndex.makeLogIndexKey(LIST_KEY)));
+
+        etag = storeInList("1", etag, INSERT_OPERATION, "second");
+        assertEquals(listEtag(2, "second"), etag);
+        etag = storeInList("1", etag, UPDATE_OPERATION, "third");
+        assertEquals(listEtag(2, "third"), etag);
+        etag = storeInList("1", etag, POP_OPERATION, "");
+        assertEquals(listEtag(1, "first"), etag);
+        assertEquals(List.of("first"), commands.lrange(LIST_KEY, 0, -1));
+    }
+
+    @Test
+    void testFlushOnMismatchWritesNothing() {
+        commands.set(VALUE_KEY, "first");
+        commands.lpush(LIST_KEY, "first");
+        //The value entry matches but the list entry doesn't, so neither is written
+        List<String> etags = flush(valueEtag("first"), listEtag(1, "other"));
+        assertEquals(List.of(), etags);
+        assertEquals("first", commands.get(VALUE_KEY));
+        assertEquals(List.of("first"), commands.lrange(LIST_KEY, 0, -1));
+        assertEquals(List.of(), commands.lrange(OTHER_LIST_KEY, 0, -1));
+
+        etags = flush(valueEtag("first"), listEtag(1, "first"));
+        assertEquals(List.of(valueEtag("second"), listEtag(3, "third"), listEtag(1, "other")), etags);
+        assertEquals("second", commands.get(VALUE_KEY));
+        assertEquals(List.of("third", "second", "first"), commands.lrange(LIST_KEY, 0, -1));
+        assertEquals(List.of("other"), commands.lrange(OTHER_LIST_KEY, 0, -1));
+    }
+
+    private String storeValue(String conditional, String expectedEtag, String value) {
+        return STORE_VALUE_SCRIPT.eval(commands, ScriptOutputType.VALUE, new String[]{VALUE_KEY}, conditional, expectedEtag, value);
+    }
+
+    private String storeInList(String conditional, String expectedEtag, String operation, String value) {
+        return STORE_LIST_SCRIPT.eval(commands, ScriptOutputType.VALUE, new String[]{LIST_KEY, LogIndex.makeLogIndexKey(LIST_KEY)},
+                conditional, expectedEtag, operation, value, "");
+    }
+
+    //Sets the value, pushes two entries onto the list and one onto the other list, which is written unconditionally
+    private List<String> flush(String valueEtag, String listEtag) {
+        var keys = new String[]{VALUE_KEY, LogIndex.makeLogIndexKey(VALUE_KEY), LIST_KEY, LogIndex.makeLogIndexKey(LIST_KEY),
+                OTHER_LIST_KEY, LogIndex.makeLogIndexKey(OTHER_LIST_KEY)};
+        return FLUSH_SCRIPT.eval(commands, ScriptOutputType.MULTI, keys,
+                VALUE_ENTRY, "1", valueEtag, "1", "second",
+                LIST_ENTRY, "1", listEtag, "2", INSERT_OPERATION, "second", "", INSERT_OPERATION, "third", "",
+                LIST_ENTRY, "0", NO_ETAG, "1", INSERT_OPERATION, "other", "");
+    }
+
+    private static String listEtag(long length, String head) {
+        return length + ":" + sha1Hex(head);
+    }
+
+    private void deleteKeys() {
+        commands.del(VALUE_KEY, LIST_KEY, OTHER_LIST_KEY, LogIndex.makeLogIndexKey(LIST_KEY), LogIndex.makeLogIndexKey(OTHER_LIST_KEY));
+    }
+}
@@ -0,0 +1,77 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.*;
+import static com.greenops.util.dbclient.redis.LogIndex.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogIndexTest {
+
+    private static final String LOG_KEY = "logindextest-logs";
+
+    @Test
+    void testIndexPositionIsStableAcrossPushesAndPops() {
+        //The head of a list of three is two entries away from the tail
+        assertEquals(2, toIndexPosition(3, 0));
+        assertEquals(0, toIndexPosition(3, 2));
+        //Pushing moves every entry one further from the head, but not relative to the tail
+        assertEquals(toIndexPosition(3, 1), toIndexPosition(4, 2));
+        //Popping moves it one closer to the head
+        assertEquals(toIndexPosition(3, 1), toIndexPosition(2, 0));
+    }
+
+    @Test
+    void testIndexFollowsPushesAndPops() {
+        var indexKey = makeLogIndexKey(LOG_KEY);
+        try (var redis = TestRedis.connectOrSkip()) {
+            var commands = redis.commands();
+            commands.del(LOG_KEY, indexKey);
+            push(commands, "deployment 1", DEPLOYMENT_LOG_INDEX_FIELD);
+            push(commands, "remediation 1", REMEDIATION_LOG_INDEX_FIELD);
+            push(commands, "deployment 2", DEPLOYMENT_LOG_INDEX_FIELD);
+            assertEquals(String.valueOf(toIndexPosition(3, 0)), commands.hget(indexKey, DEPLOYMENT_LOG_INDEX_FIELD));
+            assertEquals(String.valueOf(toIndexPosition(3, 1)), commands.hget(indexKey, REMEDIATION_LOG_INDEX_FIELD));
+            assertEquals("deployment 2", fetchIndexedLog(commands, DEPLOYMENT_LOG_INDEX_FIELD));
+            assertEquals("remediation 1", fetchIndexedLog(commands, REMEDIATION_LOG_INDEX_FIELD));
+
+            //A pop drops the index, until a scan finds the log again and repairs it
+            pop(commands);
+            assertNull(fetchIndexedLog(commands, DEPLOYMENT_LOG_INDEX_FIELD));
+            assertEquals(0L, (Long) REPAIR_LOG_INDEX_SCRIPT.eval(commands, ScriptOutputType.INTEGER, new String[]{LOG_KEY, indexKey},
+                    DEPLOYMENT_LOG_INDEX_FIELD, String.valueOf(toIndexPosition(3, 1)), "3"));
+            assertEquals(1L, (Long) REPAIR_LOG_INDEX_SCRIPT.eval(commands, ScriptOutputType.INTEGER, new String[]{LOG_KEY, indexKey},
+                    DEPLOYMENT_LOG_INDEX_FIELD, String.valueOf(toIndexPosition(2, 1)), "2"));
+            assertEquals("deployment 1", fetchIndexedLog(commands, DEPLOYMENT_LOG_INDEX_FIELD));
+
+            //Later pushes keep the repaired position valid
+            push(commands, "remediation 2", REMEDIATION_LOG_INDEX_FIELD);
+            push(commands, "remediation 3", REMEDIATION_LOG_INDEX_FIELD);
+            assertEquals("deployment 1", fetchIndexedLog(commands, DEPLOYMENT_LOG_INDEX_FIELD));
+            assertEquals("remediation 3", fetchIndexedLog(commands, REMEDIATION_LOG_INDEX_FIELD));
+
+            //A push the index doesn't know about (like one made by the Go services) makes it stale
+            commands.lpush(LOG_KEY, "deployment 3");
+            assertNull(fetchIndexedLog(commands, DEPLOYMENT_LOG_INDEX_FIELD));
+            commands.del(LOG_KEY, indexKey);
+        }
+    }
+
+    private static void push(RedisCommands<String, String> commands, String log, String indexField) {
+        STORE_LIST_SCRIPT.eval(commands, ScriptOutputType.VALUE, new String[]{LOG_KEY, makeLogIndexKey(LOG_KEY)}, "0", NO_ETAG, INSERT_OPERATION, log, indexField);
+    }
+
+    private static void pop(RedisCommands<String, String> commands) {
+        STORE_LIST_SCRIPT.eval(commands, ScriptOutputType.VALUE, new String[]{LOG_KEY, makeLogIndexKey(LOG_KEY)}, "0", NO_ETAG, POP_OPERATION, "", "");
+    }
+
+    //Returns null if the index is missing or stale
+    private static String fetchIndexedLog(RedisCommands<String, String> commands, String indexField) {
+        List<Object> result = FETCH_INDEXED_LOG_SCRIPT.eval(commands, ScriptOutputType.MULTI, new String[]{LOG_KEY, makeLogIndexKey(LOG_KEY)}, indexField);
+        return (String) result.get(1);
+    }
+}
@@ -0,0 +1,90 @@
+package com.greenops.util.dbclient.redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.util.datamodel.git.GitRepoSchema;
+import com.greenops.util.datamodel.mixin.git.GitRepoSchemaMixin;
+import com.greenops.util.datamodel.mixin.pipeline.PipelineSchemaMixin;
+import com.greenops.util.datamodel.mixin.pipeline.TeamSchemaMixin;
+import com.greenops.util.datamodel.pipeline.PipelineSchemaImpl;
+import com.greenops.util.datamodel.pipeline.TeamSchema;
+import com.greenops.util.datamodel.pipeline.TeamSchemaImpl;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearCacheTest {
+
+    private static final String TEAM_KEY = "nearcachetest-team";
+
+    private TestRedis redis;
+    private RedisCommands<String, String> commands;
+    private RedisDbClient dbClient;
+
+    @BeforeEach
+    void beforeEach() {
+        redis = TestRedis.connectOrSkip();
+        commands = redis.commands();
+        commands.del(TEAM_KEY);
+        var objectMapper = new ObjectMapper()
+                .addMixIn(PipelineSchemaImpl.class, PipelineSchemaMixin.class)
+                .addMixIn(TeamSchemaImpl.class, TeamSchemaMixin.class)
+                .addMixIn(GitRepoSchema.class, GitRepoSchemaMixin.class);
+        dbClient = new RedisDbClient(TestRedis.ENDPOINT, 1, 16, ValueFormat.JSON, objectMapper);
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (redis == null) return;
+        commands.del(TEAM_KEY);
+        dbClient.shutdown();
+        redis.close();
+    }
+
+    @Test
+    void testTeamSchemaIsServedLocallyAfterFirstRead() {
+        dbClient.storeValue(TEAM_KEY, new TeamSchemaImpl("team", "", "org"));
+
+        //Each event reads the team schema in its own unit of work
+        var getsBefore = countGets();
+        assertEquals("team", fetchTeamSchemaForEvent().getTeamName());
+        assertEquals(1, countGets() - getsBefore);
+
+        getsBefore = countGets();
+        assertEquals("team", fetchTeamSchemaForEvent().getTeamName());
+        assertEquals(0, countGets() - getsBefore);
+    }
+
+    @Test
+    void testTeamSchemaWrittenElsewhereIsReadAgain() throws InterruptedException {
+        dbClient.storeValue(TEAM_KEY, new TeamSchemaImpl("team", "", "org"));
+        assertEquals("", fetchTeamSchemaForEvent().getParentTeam());
+
+        //Written by another client, so the cache only learns about it from the invalidation Redis pushes
+        commands.set(TEAM_KEY, "{\"teamName\":\"team\",\"parentTeam\":\"parent\",\"orgName\":\"org\",\"pipelines\":[]}");
+        var parentTeam = "";
+        for (var idx = 0; idx < 100 && parentTeam.isEmpty(); idx++) {
+            Thread.sleep(10);
+            parentTeam = fetchTeamSchemaForEvent().getParentTeam();
+        }
+        assertEquals("parent", parentTeam);
+    }
+
+    private TeamSchema fetchTeamSchemaForEvent() {
+        dbClient.beginUnitOfWork();
+        try {
+            return dbClient.fetchTeamSchema(TEAM_KEY);
+        } finally {
+            dbClient.endUnitOfWork();
+        }
+    }
+
+    private long countGets() {
+        for (var line : commands.info("commandstats").split("\r\n")) {
+            if (line.startsWith("cmdstat_get:")) return Long.parseLong(line.split("calls=")[1].split(",")[0]);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,44 @@
+package com.greenops.util.dbclient.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+//A connection to the Redis instance at REDIS_ENDPOINT (localhost:6379 by default). Tests that open one are skipped if
+//there is none.
+final class TestRedis implements AutoCloseable {
+
+    static final String ENDPOINT = System.getenv().getOrDefault("REDIS_ENDPOINT", "localhost:6379");
+
+    private final RedisClient redisClient;
+    private final StatefulRedisConnection<String, String> connection;
+
+    private TestRedis(RedisClient redisClient, StatefulRedisConnection<String, String> connection) {
+        this.redisClient = redisClient;
+        this.connection = connection;
+    }
+
+    static TestRedis connectOrSkip() {
+        var redisClient = RedisClient.create("redis://" + ENDPOINT);
+        try {
+            return new TestRedis(redisClient, redisClient.connect(ValueCodec.CONNECTION_CODEC));
+        } catch (RedisConnectionException e) {
+            redisClient.shutdown();
+            assumeTrue(false, "Redis is not running");
+            throw e;
+        }
+    }
+
+    RedisCommands<String, String> commands() {
+        return connection.sync();
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+        redisClient.shutdown();
+    }
+}
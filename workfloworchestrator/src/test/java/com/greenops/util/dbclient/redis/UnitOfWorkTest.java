@@ -0,0 +1,88 @@
+package com.greenops.util.dbclient.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.greenops.util.dbclient.redis.CompareAndSet.*;
+import static com.greenops.util.dbclient.redis.LogIndex.DEPLOYMENT_LOG_INDEX_FIELD;
+import static com.greenops.util.dbclient.redis.LogIndex.REMEDIATION_LOG_INDEX_FIELD;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnitOfWorkTest {
+
+    private static final String LIST_KEY = "list";
+
+    @Test
+    void testUpdateAfterInsertIsFolded() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.storeInList(LIST_KEY, INSERT_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.storeInList(LIST_KEY, UPDATE_OPERATION, "second", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.storeInList(LIST_KEY, UPDATE_OPERATION, "third", DEPLOYMENT_LOG_INDEX_FIELD);
+        assertEquals(List.of(INSERT_OPERATION + " third"), describePendingOperations(unitOfWork));
+        assertEquals(List.of("third"), unitOfWork.getList(LIST_KEY).head);
+    }
+
+    @Test
+    void testUpdateOfAnotherLogTypeIsNotFolded() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.storeInList(LIST_KEY, INSERT_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.storeInList(LIST_KEY, UPDATE_OPERATION, "second", REMEDIATION_LOG_INDEX_FIELD);
+        assertEquals(List.of(INSERT_OPERATION + " first", UPDATE_OPERATION + " second"), describePendingOperations(unitOfWork));
+    }
+
+    @Test
+    void testInsertThenPopCancelsOut() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.storeInList(LIST_KEY, INSERT_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.storeInList(LIST_KEY, POP_OPERATION, "", "");
+        assertEquals(List.of(), describePendingOperations(unitOfWork));
+        assertEquals(List.of(), unitOfWork.getList(LIST_KEY).head);
+        //The key is still flushed, so its etag is still checked
+        assertTrue(unitOfWork.hasPendingWrites(LIST_KEY));
+    }
+
+    @Test
+    void testPopOfAnEarlierEntryIsNotFolded() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.storeInList(LIST_KEY, POP_OPERATION, "", "");
+        unitOfWork.storeInList(LIST_KEY, UPDATE_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.storeInList(LIST_KEY, POP_OPERATION, "", "");
+        assertEquals(List.of(POP_OPERATION + " ", UPDATE_OPERATION + " first", POP_OPERATION + " "), describePendingOperations(unitOfWork));
+    }
+
+    @Test
+    void testFlushClearsPendingOperations() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.storeValue("value", "first");
+        unitOfWork.storeInList(LIST_KEY, INSERT_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.markFlushed(List.of(valueEtag("first"), "1:" + sha1Hex("first")));
+        assertFalse(unitOfWork.hasPendingWrites());
+        assertEquals(List.of(), describePendingOperations(unitOfWork));
+        assertEquals(valueEtag("first"), unitOfWork.getValue("value").etag);
+        assertTrue(unitOfWork.getList(LIST_KEY).isFullyKnown());
+    }
+
+    @Test
+    void testForgetUnwrittenReadsKeepsWrittenKeys() {
+        var unitOfWork = new UnitOfWork(null);
+        unitOfWork.getValue("read").known = true;
+        unitOfWork.getList("readlist").addRange("1:" + sha1Hex("first"), 0, List.of("first"));
+        unitOfWork.storeValue("written", "first");
+        unitOfWork.storeInList(LIST_KEY, INSERT_OPERATION, "first", DEPLOYMENT_LOG_INDEX_FIELD);
+        unitOfWork.markFlushed(List.of(valueEtag("first"), "1:" + sha1Hex("first")));
+
+        unitOfWork.forgetUnwrittenReads();
+        assertFalse(unitOfWork.getValue("read").known);
+        assertFalse(unitOfWork.isList("readlist"));
+        assertEquals("first", unitOfWork.getValue("written").value);
+        assertEquals(List.of("first"), unitOfWork.getList(LIST_KEY).head);
+    }
+
+    private static List<String> describePendingOperations(UnitOfWork unitOfWork) {
+        return unitOfWork.getList(LIST_KEY).pendingOperations.stream()
+                .map(listOperation -> listOperation.operation + " " + listOperation.value)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,64 @@
+package com.greenops.util.dbclient.redis;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCodecTest {
+
+    private static final int COMPRESSION_THRESHOLD = 4096;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ValueCodec jsonCodec = new ValueCodec(objectMapper, ValueFormat.JSON);
+    private final ValueCodec smileCodec = new ValueCodec(objectMapper, ValueFormat.SMILE);
+
+    @Test
+    void testJsonRoundTrip() throws JsonProcessingException {
+        var value = makeValue("caf\u00e9 \u2713");
+        var encoded = jsonCodec.encode(value);
+        assertEquals('{', encoded.charAt(0));
+        //Stored values hold the UTF-8 bytes of the JSON, which is what the Go services write and read
+        assertEquals(objectMapper.writeValueAsString(value), new String(encoded.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+        assertEquals(value, jsonCodec.decode(encoded, Map.class));
+        assertEquals(value, smileCodec.decode(encoded, Map.class));
+    }
+
+    @Test
+    void testSmileRoundTripBelowCompressionThreshold() throws JsonProcessingException {
+        var value = makeValue("caf\u00e9 \u2713");
+        var encoded = smileCodec.encode(value);
+        assertEquals(0x01, encoded.charAt(0));
+        assertTrue(encoded.length() < COMPRESSION_THRESHOLD);
+        assertEquals(value, smileCodec.decode(encoded, Map.class));
+        //Switching back to JSON doesn't strand values already written as Smile
+        assertEquals(value, jsonCodec.decode(encoded, Map.class));
+    }
+
+    @Test
+    void testSmileRoundTripAtCompressionThreshold() throws JsonProcessingException {
+        //Long strings aren't shared by Smile, so this ends up over the threshold
+        var value = makeValue("x".repeat(COMPRESSION_THRESHOLD));
+        var encoded = smileCodec.encode(value);
+        assertEquals(0x02, encoded.charAt(0));
+        assertTrue(encoded.length() < COMPRESSION_THRESHOLD);
+        assertEquals(value, smileCodec.decode(encoded, Map.class));
+        assertEquals(value, jsonCodec.decode(encoded, Map.class));
+    }
+
+    @Test
+    void testSmileModeReadsJsonWrittenByGo() throws JsonProcessingException {
+        var goJson = "{\"pipelineUvn\":\"uvn\",\"status\":\"caf\u00e9\",\"uploadedVersion\":true}";
+        //The connection reads every byte as one char
+        var storedValue = new String(goJson.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        assertEquals(Map.of("pipelineUvn", "uvn", "status", "caf\u00e9", "uploadedVersion", true), smileCodec.decode(storedValue, Map.class));
+    }
+
+    private static Map<String, Object> makeValue(String message) {
+        return Map.of("pipelineUvn", "uvn", "message", message, "rollbackLimit", 3, "uploadedVersion", false);
+    }
+}
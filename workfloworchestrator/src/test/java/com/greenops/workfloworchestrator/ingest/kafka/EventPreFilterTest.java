@@ -0,0 +1,91 @@
+package com.greenops.workfloworchestrator.ingest.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.workfloworchestrator.ingest.dbclient.DbKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventPreFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private EventPreFilter eventPreFilter;
+
+    @BeforeEach
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+        eventPreFilter = new EventPreFilter(new ObjectMapper(), 2, meterRegistry);
+    }
+
+    @Test
+    void testProgressingClientCompletionIsSkipped() {
+        //Nested objects are skipped over without being read
+        assertTrue(eventPreFilter.canSkip("{\"type\":\"clientcompletion\",\"resourceStatuses\":[{\"healthStatus\":\"Healthy\"}],"
+                + "\"healthStatus\":\"Progressing\",\"pipelineUvn\":\"uvn1\"}"));
+        assertFalse(eventPreFilter.canSkip(makeEvent("clientcompletion", "step", "uvn1").replace("{", "{\"healthStatus\":\"Healthy\",")));
+        assertEquals(1.0, meterRegistry.counter("atlas.kafka.prefilter.skipped", "reason", "progressing").count());
+    }
+
+    @Test
+    void testEventsFromReplacedRunAreSkipped() {
+        eventPreFilter.recordCurrentUvn(makeStepKey("step"), "uvn1");
+        //Nothing is known to be stale until the step has moved on
+        assertFalse(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn1")));
+
+        eventPreFilter.recordCurrentUvn(makeStepKey("step"), "uvn2");
+        assertTrue(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn1")));
+        assertFalse(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn2")));
+        //Runs that were never seen are let through, even though they may be older
+        assertFalse(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn0")));
+        assertEquals(1.0, meterRegistry.counter("atlas.kafka.prefilter.skipped", "reason", "stale").count());
+
+        //A run that becomes current again is no longer stale
+        eventPreFilter.recordCurrentUvn(makeStepKey("step"), "uvn1");
+        assertFalse(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn1")));
+        assertTrue(eventPreFilter.canSkip(makeEvent("testcompletion", "step", "uvn2")));
+    }
+
+    @Test
+    void testUnknownAndUnreadableRecordsAreLetThrough() {
+        eventPreFilter.recordCurrentUvn(makeStepKey("step"), "uvn1");
+        eventPreFilter.recordCurrentUvn(makeStepKey("step"), "uvn2");
+        //Triggers start runs, and types the filter doesn't know about are left to the handler
+        assertFalse(eventPreFilter.canSkip(makeEvent("pipelinetrigger", "step", "uvn1")));
+        assertFalse(eventPreFilter.canSkip(makeEvent("somenewevent", "step", "uvn1")));
+        assertFalse(eventPreFilter.canSkip("{\"stepName\":\"step\",\"pipelineUvn\":\"uvn1\"}"));
+        assertFalse(eventPreFilter.canSkip(null));
+        assertFalse(eventPreFilter.canSkip("[]"));
+        assertFalse(eventPreFilter.canSkip("{\"type\":\"testcompletion\",\"pipelineUvn\":"));
+        assertFalse(eventPreFilter.canSkip("not json"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedStepIsEvicted() {
+        eventPreFilter.recordCurrentUvn(makeStepKey("first"), "uvn1");
+        eventPreFilter.recordCurrentUvn(makeStepKey("first"), "uvn2");
+        eventPreFilter.recordCurrentUvn(makeStepKey("second"), "uvn1");
+        eventPreFilter.recordCurrentUvn(makeStepKey("second"), "uvn2");
+        //Reading the first step makes the second one the least recently used
+        assertTrue(eventPreFilter.canSkip(makeEvent("testcompletion", "first", "uvn1")));
+        eventPreFilter.recordCurrentUvn(makeStepKey("third"), "uvn1");
+
+        assertTrue(eventPreFilter.canSkip(makeEvent("testcompletion", "first", "uvn1")));
+        assertFalse(eventPreFilter.canSkip(makeEvent("testcompletion", "second", "uvn1")));
+    }
+
+    @Test
+    void testEmptyStepTableIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new EventPreFilter(new ObjectMapper(), 0, meterRegistry));
+    }
+
+    private static String makeStepKey(String stepName) {
+        return DbKey.makeDbStepKey("org", "team", "pipeline", stepName);
+    }
+
+    private static String makeEvent(String type, String stepName, String pipelineUvn) {
+        return String.format("{\"type\":\"%s\",\"orgName\":\"org\",\"teamName\":\"team\",\"pipelineName\":\"pipeline\","
+                + "\"stepName\":\"%s\",\"pipelineUvn\":\"%s\"}", type, stepName, pipelineUvn);
+    }
+}
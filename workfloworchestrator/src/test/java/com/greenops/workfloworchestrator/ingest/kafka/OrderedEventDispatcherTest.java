@@ -0,0 +1,152 @@
+package com.greenops.workfloworchestrator.ingest.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greenops.util.dbclient.DbClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderedEventDispatcherTest {
+
+    private static final String TOPIC = "greenops.eventing";
+
+    private KafkaClient kafkaClient;
+    private OrderedEventDispatcher dispatcher;
+
+    @BeforeEach
+    void beforeEach() {
+        //KafkaTemplate closes the producer after every send unless it is shared
+        var producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer()) {
+            @Override
+            public void close(Duration timeout) {
+            }
+        };
+        kafkaClient = new KafkaClient(new ObjectMapper(), TOPIC, TOPIC + ".dlq", new KafkaTemplate<>(() -> producer), Mockito.mock(DbClient.class));
+        dispatcher = new OrderedEventDispatcher(8, 64, 64, (record, exception) -> {}, new EventRetryTopics(TOPIC, 2, 1000L, 5), kafkaClient);
+    }
+
+    @AfterEach
+    void afterEach() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void testSameKeyRunsInOrderAcrossWorkers() throws InterruptedException {
+        var handled = new ConcurrentHashMap<String, List<Long>>();
+        var running = new ConcurrentHashMap<String, AtomicInteger>();
+        var overlaps = new AtomicInteger();
+        for (var offset = 0L; offset < 400; offset++) {
+            var key = "pipeline" + (offset % 5);
+            var handledOffset = offset;
+            dispatcher.dispatch(key, makeRecord(offset, key), () -> {}, () -> {
+                if (running.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() > 1) overlaps.incrementAndGet();
+                sleep(handledOffset % 3);
+                handled.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(handledOffset);
+                running.get(key).decrementAndGet();
+            });
+        }
+        dispatcher.onPartitionsRevokedBeforeCommit(null, List.of(new TopicPartition(TOPIC, 0)));
+
+        assertEquals(0, overlaps.get());
+        assertEquals(5, handled.size());
+        for (var offsets : handled.values()) {
+            assertEquals(80, offsets.size());
+            var sorted = new ArrayList<>(offsets);
+            sorted.sort(Long::compare);
+            assertEquals(sorted, offsets);
+        }
+    }
+
+    @Test
+    void testAcksAreContiguousWhenLaterRecordsFinishFirst() throws InterruptedException {
+        var acked = new CopyOnWriteArrayList<Long>();
+        var release = new CountDownLatch(1);
+        var laterRecordsDone = new CountDownLatch(2);
+        dispatcher.dispatch("first", makeRecord(0, "first"), () -> acked.add(0L), () -> await(release));
+        dispatcher.dispatch("second", makeRecord(1, "second"), () -> acked.add(1L), laterRecordsDone::countDown);
+        dispatcher.dispatch("third", makeRecord(2, "third"), () -> acked.add(2L), laterRecordsDone::countDown);
+
+        assertTrue(laterRecordsDone.await(5, TimeUnit.SECONDS));
+        //Give the workers a moment to acknowledge, which they must not do while offset 0 is running
+        Thread.sleep(50);
+        assertEquals(List.of(), acked);
+
+        release.countDown();
+        dispatcher.onPartitionsRevokedBeforeCommit(null, List.of(new TopicPartition(TOPIC, 0)));
+        //Acknowledging the newest offset commits the ones before it
+        assertEquals(List.of(2L), acked);
+    }
+
+    @Test
+    void testRevokedPartitionDrainsBeforeCommit() {
+        var acked = new CopyOnWriteArrayList<Long>();
+        var handled = new CopyOnWriteArrayList<Long>();
+        dispatcher.dispatch("slow", makeRecord(0, "slow"), () -> acked.add(0L), () -> {
+            sleep(200);
+            handled.add(0L);
+        });
+        dispatcher.dispatch("fast", makeRecord(1, "fast"), () -> acked.add(1L), () -> handled.add(1L));
+
+        dispatcher.onPartitionsRevokedBeforeCommit(null, List.of(new TopicPartition(TOPIC, 0)));
+        assertEquals(2, handled.size());
+        assertEquals(List.of(1L), acked);
+    }
+
+    @Test
+    void testWaitingRetriesDoNotHoldUpMainTopic() throws InterruptedException {
+        dispatcher.shutdown();
+        dispatcher = new OrderedEventDispatcher(2, 1, 1, (record, exception) -> {}, new EventRetryTopics(TOPIC, 2, 1000L, 5), kafkaClient);
+        var retryRecord = new ConsumerRecord<>(TOPIC + ".retry.1", 0, 0, "pipeline", "{}");
+        retryRecord.headers().add(EventRetryTopics.ATTEMPT_HEADER, "1".getBytes(StandardCharsets.UTF_8));
+        retryRecord.headers().add(EventRetryTopics.DUE_TIME_HEADER, String.valueOf(System.currentTimeMillis() + 5000).getBytes(StandardCharsets.UTF_8));
+        dispatcher.dispatch("pipeline", retryRecord, () -> {}, () -> {});
+
+        //With one permit each, the second main topic record can only be dispatched once the first has been handled
+        var handled = new CountDownLatch(2);
+        var consumer = new Thread(() -> {
+            dispatcher.dispatch("pipeline", makeRecord(0, "pipeline"), () -> {}, handled::countDown);
+            dispatcher.dispatch("pipeline", makeRecord(1, "pipeline"), () -> {}, handled::countDown);
+        });
+        consumer.start();
+        assertTrue(handled.await(2, TimeUnit.SECONDS));
+        consumer.join();
+    }
+
+    private static ConsumerRecord<String, String> makeRecord(long offset, String key) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, key, "{}");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
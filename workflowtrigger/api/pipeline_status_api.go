@@ -1,17 +1,21 @@
 package api
 
 import (
+	"encoding/json"
 	"fmt"
 	"github.com/gorilla/mux"
 	"github.com/greenopsinc/util/auditlog"
 	"github.com/greenopsinc/util/db"
+	"github.com/greenopsinc/util/event"
 	"github.com/greenopsinc/util/git"
 	"greenops.io/workflowtrigger/api/argo"
 	"greenops.io/workflowtrigger/api/reposerver"
 	"greenops.io/workflowtrigger/pipelinestatus"
 	"greenops.io/workflowtrigger/serializer"
+	"log"
 	"math"
 	"net/http"
+	"os"
 	"strconv"
 )
 
@@ -21,6 +25,9 @@ const (
 	countField       string = "count"
 )
 
+//Has to match the workflow orchestrator's setting of the same name
+const pipelineTriggerCoalescingEnv string = "PIPELINE_TRIGGER_COALESCING"
+
 func getStepLogs(w http.ResponseWriter, r *http.Request) {
 	vars := mux.Vars(r)
 	orgName := vars[orgNameField]
@@ -145,6 +152,9 @@ func getPipelineStatus(w http.ResponseWriter, r *http.Request) {
 		http.Error(w, "No pipeline runs exist with the requested UVN", http.StatusBadRequest)
 		return
 	}
+	if pipelineInfo.SupersededBy != "" {
+		status.MarkSkipped()
+	}
 	steps := pipelineInfo.StepList
 	for _, step := range steps {
 		//Get pipeline UVN if not specified
@@ -288,10 +298,94 @@ func cancelLatestPipeline(w http.ResponseWriter, r *http.Request) {
 			dbClient.UpdateHeadInList(key, latestLog)
 		}
 	}
+	wakeQueuedPipelineRun(orgName, teamName, pipelineName, dbClient)
 	w.WriteHeader(http.StatusOK)
 	return
 }
 
+// wakeQueuedPipelineRun republishes the trigger that has waited the longest behind the cancelled run. The workflow
+// orchestrator only wakes queued runs when a step finishes, and a cancelled run finishes none. Like the orchestrator,
+// only the caller that takes the trigger off the queue publishes it, so a cancel racing a finishing step never starts
+// the same run twice. With coalescing turned on, the newest trigger of the same kind is published instead, and the ones
+// in between that were taken off the queue are recorded as skipped.
+func wakeQueuedPipelineRun(orgName string, teamName string, pipelineName string, dbClient db.DbClient) {
+	runQueueKey := db.MakeDbPipelineRunQueueKey(orgName, teamName, pipelineName)
+	queuedTrigger := dbClient.FetchFirstInSortedSet(runQueueKey)
+	if queuedTrigger == "" {
+		return
+	}
+	supersededTriggers := make([]string, 0)
+	if os.Getenv(pipelineTriggerCoalescingEnv) == "true" {
+		sameKindTriggers := fetchQueuedTriggersLike(runQueueKey, queuedTrigger, dbClient)
+		queuedTrigger = sameKindTriggers[len(sameKindTriggers)-1]
+		supersededTriggers = sameKindTriggers[:len(sameKindTriggers)-1]
+	}
+	if !dbClient.RemoveFromSortedSet(runQueueKey, queuedTrigger) {
+		log.Printf("Queued run for pipeline %s was already woken up", pipelineName)
+		return
+	}
+	removedTriggers := make([]string, 0)
+	for _, supersededTrigger := range supersededTriggers {
+		if dbClient.RemoveFromSortedSet(runQueueKey, supersededTrigger) {
+			removedTriggers = append(removedTriggers, supersededTrigger)
+		}
+	}
+	recordSkippedPipelineRuns(orgName, teamName, pipelineName, removedTriggers, queuedTrigger, dbClient)
+	removedTriggers = append(removedTriggers, queuedTrigger)
+	defer func() {
+		//Put back at the front of the queue in their original order if the trigger could not be published
+		if err := recover(); err != nil {
+			for idx, removedTrigger := range removedTriggers {
+				dbClient.AddToSortedSet(runQueueKey, float64(idx), removedTrigger)
+			}
+			panic(err)
+		}
+	}()
+	//The skipped runs are stored before the trigger is published, so the trigger's run is the latest one again
+	generateEvent(queuedTrigger)
+}
+
+// fetchQueuedTriggersLike returns the queued triggers for the same starting step as the given one, oldest first. Full
+// runs are only coalesced with full runs, and sub-pipeline runs with runs of the same sub-pipeline.
+func fetchQueuedTriggersLike(runQueueKey string, queuedTrigger string, dbClient db.DbClient) []string {
+	stepName := readQueuedTrigger(queuedTrigger).StepName
+	sameKindTriggers := make([]string, 0)
+	for _, trigger := range dbClient.FetchSortedSet(runQueueKey) {
+		if readQueuedTrigger(trigger).StepName == stepName {
+			sameKindTriggers = append(sameKindTriggers, trigger)
+		}
+	}
+	//The trigger may have been taken off the queue in the meantime
+	if len(sameKindTriggers) == 0 {
+		return []string{queuedTrigger}
+	}
+	return sameKindTriggers
+}
+
+func recordSkippedPipelineRuns(orgName string, teamName string, pipelineName string, supersededTriggers []string, queuedTrigger string, dbClient db.DbClient) {
+	pipelineInfoKey := db.MakeDbPipelineInfoKey(orgName, teamName, pipelineName)
+	startingUvn := readQueuedTrigger(queuedTrigger).UVN
+	for _, supersededTrigger := range supersededTriggers {
+		skippedUvn := readQueuedTrigger(supersededTrigger).UVN
+		log.Printf("Skipping queued pipeline run %s, superseded by %s", skippedUvn, startingUvn)
+		dbClient.InsertValueInList(pipelineInfoKey, auditlog.PipelineInfo{
+			PipelineUvn:  skippedUvn,
+			Errors:       make([]string, 0),
+			StepList:     make([]string, 0),
+			SupersededBy: startingUvn,
+		})
+	}
+}
+
+func readQueuedTrigger(queuedTrigger string) event.PipelineTriggerEvent {
+	var pipelineTriggerEvent event.PipelineTriggerEvent
+	err := json.Unmarshal([]byte(queuedTrigger), &pipelineTriggerEvent)
+	if err != nil {
+		panic(err)
+	}
+	return pipelineTriggerEvent
+}
+
 func InitStatusEndpoints(r *mux.Router) {
 	r.HandleFunc("/status/{orgName}/{teamName}/pipeline/{pipelineName}/history/{count}", getPipelineUvns).Methods("GET")
 	r.HandleFunc("/status/{orgName}/{teamName}/pipeline/{pipelineName}/step/{stepName}/{count}", getStepLogs).Methods("GET")
@@ -10,6 +10,7 @@ type PipelineStatus struct {
 	Stable           bool         `json:"stable"`
 	Complete         bool         `json:"complete"`
 	Cancelled        bool         `json:"cancelled"`
+	Skipped          bool         `json:"skipped"`
 	FailedSteps      []FailedStep `json:"failedSteps"`
 }
 
@@ -19,6 +20,7 @@ func New() PipelineStatus {
 		Stable:           true,
 		Complete:         true,
 		Cancelled:        false,
+		Skipped:          false,
 		FailedSteps:      make([]FailedStep, 0),
 	}
 }
@@ -28,6 +30,11 @@ func (p *PipelineStatus) MarkCancelled() {
 	p.Complete = false
 }
 
+func (p *PipelineStatus) MarkSkipped() {
+	p.Skipped = true
+	p.Complete = false
+}
+
 func (p *PipelineStatus) MarkIncomplete() {
 	p.Complete = false
 }
@@ -80,6 +87,7 @@ func MarshallPipelineStatus(status PipelineStatus) *ordered.OrderedMap {
 	mapObj.Set("stable", status.Stable)
 	mapObj.Set("complete", status.Complete)
 	mapObj.Set("cancelled", status.Cancelled)
+	mapObj.Set("skipped", status.Skipped)
 	mapObj.Set("failedSteps", failedStepsList)
 	return mapObj
 }